@@ -0,0 +1,16 @@
+package com.rapplogic.xbee;
+
+import java.nio.channels.SelectableChannel;
+
+/**
+ * A connection backed by a non-blocking NIO channel, which the XBeeReactor reads from directly with a selector 
+ * rather than polling the input stream.  The channel must also implement ReadableByteChannel (e.g. SocketChannel).
+ * <p/>
+ * A selectable connection may only be used with an XBeeReactor (see XBeeConfiguration.withReactor).
+ * 
+ * @author andrew
+ *
+ */
+public interface SelectableXBeeConnection extends XBeeConnection {
+	public SelectableChannel getChannel();
+}
@@ -35,6 +35,7 @@ import java.util.TooManyListenersException;
 
 import org.apache.log4j.Logger;
 
+import com.rapplogic.xbee.api.TransmitPacer;
 import com.rapplogic.xbee.api.XBeeException;
 
 /** 
@@ -44,13 +45,14 @@ import com.rapplogic.xbee.api.XBeeException;
  * @author andrew
  * 
  */
-public class SerialPortConnection implements XBeeConnection, SerialPortEventListener {
+public class SerialPortConnection implements XBeeConnection, SerialPortEventListener, TransmitPacer.ClearToSend {
 
 	private final static Logger log = Logger.getLogger(SerialPortConnection.class);
 	
 	private InputStream inputStream;
 	private OutputStream outputStream;
 	private SerialPort serialPort;
+	private int baudRate;
 	// so we don't fill the logs on non-terminating rxtx loop errors
 	private boolean logErrors = true;
 	
@@ -98,6 +100,7 @@ public class SerialPortConnection implements XBeeConnection, SerialPortEventList
 		serialPort = (SerialPort) portId.open(appName, timeout);
 		
 		serialPort.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		this.baudRate = baudRate;
 		serialPort.setFlowControlMode(SerialPort.FLOWCONTROL_NONE);
 
 		// activate the DATA_AVAILABLE notifier
@@ -145,6 +148,20 @@ public class SerialPortConnection implements XBeeConnection, SerialPortEventList
 		return inputStream;
 	}
 	
+	/**
+	 * Returns the baud rate the port was opened with
+	 */
+	public int getBaudRate() {
+		return baudRate;
+	}
+	
+	/**
+	 * Returns true if CTS is asserted.  Used by TransmitPacer when flow control is enabled
+	 */
+	public boolean isClearToSend() {
+		return serialPort != null && serialPort.isCTS();
+	}
+	
 	public void serialEvent(SerialPortEvent event) {
 		
 		switch (event.getEventType()) {	
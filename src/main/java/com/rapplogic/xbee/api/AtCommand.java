@@ -20,7 +20,6 @@
 package com.rapplogic.xbee.api;
 
 import com.rapplogic.xbee.util.ByteUtils;
-import com.rapplogic.xbee.util.IntArrayOutputStream;
 
 /** 
  * API technique to set/query commands
@@ -87,27 +86,31 @@ public class AtCommand extends XBeeRequest {
 	}
 
 	public int[] getFrameData() {
+		return this.toFrameData();
+	}
+	
+	public int getFrameDataLength() {
+		return 4 + (value != null ? value.length : 0);
+	}
+	
+	protected void writeFrameData(FrameEncoder out) {
 		if (command.length() > 2) {
 			throw new IllegalArgumentException("Command should be two characters.  Do not include AT prefix");
 		}
 		
-		IntArrayOutputStream out = new IntArrayOutputStream();
-		
 		// api id
 		out.write(this.getApiId().getValue());
 		// frame id
 		out.write(this.getFrameId());
 		// at command byte 1
-		out.write((int) command.substring(0, 1).toCharArray()[0]);
+		out.write(command.charAt(0));
 		// at command byte 2
-		out.write((int) command.substring(1, 2).toCharArray()[0]);
+		out.write(command.charAt(1));
 
 		// int value is up to four bytes to represent command value
 		if (value != null) {
 			out.write(value);
 		}
-		
-		return out.getIntArray();
 	}
 
 	public ApiId getApiId() {
@@ -77,6 +77,8 @@ public class AtCommandResponse extends XBeeFrameIdResponse {
 	private Status status;
 	// response value msb to lsb
 	private int[] value;
+	// value array created by parse, reused when this response is recycled
+	private int[] parsedValue;
 	
 	public AtCommandResponse() {
 
@@ -140,7 +142,21 @@ public class AtCommandResponse extends XBeeFrameIdResponse {
 		this.setChar2(parser.read("AT Response Char 2"));
 		this.setStatus(Status.get(parser.read("AT Response Status")));
 							
-		this.setValue(parser.readRemainingBytes());		
+		parsedValue = getInternalParser(parser).readRemainingBytes(parsedValue);
+		this.setValue(parsedValue);		
+	}
+	
+	protected boolean isRecyclable() {
+		// subclasses must reset their own fields
+		return this.getClass() == AtCommandResponse.class;
+	}
+	
+	protected void reset() {
+		char1 = 0;
+		char2 = 0;
+		status = null;
+		value = null;
+		super.reset();
 	}
 
 	public String toString() {
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import com.rapplogic.xbee.XBeeConnection;
+
+/**
+ * Busy-spins on the input stream for a number of polls, then yields for a number of polls, then parks 
+ * for an exponentially increasing period, up to a maximum.  Gives spin latency to bursts of traffic while 
+ * limiting the CPU used when the radio is quiet.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class BackoffSpinWaitStrategy implements WaitStrategy {
+
+	private final int spinTries;
+	private final int yieldTries;
+	private final long maxParkNanos;
+	
+	/**
+	 * Spins 1000 times, yields 100 times, then parks up to 1 millisecond
+	 */
+	public BackoffSpinWaitStrategy() {
+		this(1000, 100, 1000000);
+	}
+	
+	public BackoffSpinWaitStrategy(int spinTries, int yieldTries, long maxParkNanos) {
+		if (spinTries < 0 || yieldTries < 0 || maxParkNanos < 1) {
+			throw new IllegalArgumentException("Invalid backoff parameters");
+		}
+		
+		this.spinTries = spinTries;
+		this.yieldTries = yieldTries;
+		this.maxParkNanos = maxParkNanos;
+	}
+	
+	public int awaitData(XBeeConnection connection) throws IOException, InterruptedException {
+		int available;
+		int tries = 0;
+		long parkNanos = 1000;
+		
+		while ((available = connection.getInputStream().available()) == 0) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			
+			if (tries < spinTries) {
+				tries++;
+			} else if (tries < spinTries + yieldTries) {
+				tries++;
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(parkNanos);
+				parkNanos = Math.min(parkNanos * 2, maxParkNanos);
+			}
+		}
+		
+		return available;
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import com.rapplogic.xbee.XBeeConnection;
+
+/**
+ * Does not wait at all: the input stream thread goes straight to the read, which blocks until data arrives.  
+ * Avoids the monitor handoff of BlockingWaitStrategy, but relies on the input stream read blocking until 
+ * at least one byte is available and returning what is available (true of the RXTX serial port if no receive 
+ * timeout is set, and of the piped stream of socket connections).  A blocking read is not interruptible, 
+ * it is woken by close of the connection.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class BlockingReadWaitStrategy implements WaitStrategy {
+
+	public int awaitData(XBeeConnection connection) {
+		return Integer.MAX_VALUE;
+	}
+}
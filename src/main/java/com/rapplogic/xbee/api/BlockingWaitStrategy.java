@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+
+import com.rapplogic.xbee.XBeeConnection;
+
+/**
+ * Waits on the connection monitor until the connection calls notify() when data arrives.
+ * This is the default strategy and uses no CPU while idle.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+	public int awaitData(XBeeConnection connection) throws IOException, InterruptedException {
+		int available = connection.getInputStream().available();
+		
+		if (available > 0) {
+			return available;
+		}
+		
+		// we will wait here for RXTX to notify us of new data
+		synchronized (connection) {
+			// There's a chance that we got notified after the first in.available check
+			available = connection.getInputStream().available();
+			
+			if (available > 0) {
+				return available;
+			}
+			
+			// wait until new data arrives
+			connection.wait();
+		}
+		
+		return connection.getInputStream().available();
+	}
+}
@@ -0,0 +1,357 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Parses a packet that has already been framed and un-escaped (e.g. by FrameDecoder) into an XBeeResponse.
+ * Unlike PacketParser, the packet bytes are read from a ByteBuffer and kept as primitive bytes,
+ * so no Integer objects are created while parsing.
+ * <p/>
+ * The parser may be reused for any number of packets, but is not thread safe.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class ByteBufferPacketParser implements InternalPacketParser {
+
+	private final static Logger log = Logger.getLogger(ByteBufferPacketParser.class);
+
+	private final ResponseHandlerRegistry registry;
+	private boolean lazyParsing;
+	private TraceSink traceSink = TraceSink.NONE;
+	private IoSampleSink ioSampleSink;
+	private int ioSampleRate;
+	// set in recycling mode
+	private ResponsePool responsePool;
+	
+	private ByteBuffer frame;
+
+	private XBeePacketLength length;
+	private int checksum;
+	private boolean done;
+	private int bytesRead;
+
+	private ApiId apiId;
+	private int intApiId;
+
+	public ByteBufferPacketParser() {
+		this(ResponseHandlerRegistry.getDefault());
+	}
+
+	public ByteBufferPacketParser(ResponseHandlerRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Parses a packet.  The frame buffer must contain the un-escaped packet, from the length msb
+	 * to the checksum, between its position and limit.  The raw buffer contains the same packet as received
+	 * off the radio (escaped, minus the start byte) and is copied to the response.
+	 * <p/>
+	 * Like PacketParser, this method returns an ErrorResponse if an error occurs
+	 *
+	 * @param frame
+	 * @param raw
+	 * @return
+	 */
+	public XBeeResponse parsePacket(ByteBuffer frame, ByteBuffer raw) {
+		this.frame = frame;
+		this.length = null;
+		this.checksum = 0;
+		this.done = false;
+		this.bytesRead = 0;
+		this.apiId = null;
+		this.intApiId = 0;
+
+		final int start = frame.position();
+		final int end = frame.limit();
+
+		XBeeResponse response = null;
+
+		try {
+			int msbLength = this.read("Length MSB");
+			int lsbLength = this.read("Length LSB");
+
+			this.length = new XBeePacketLength(msbLength, lsbLength);
+
+			if (end - start != length.getLength() + 3) {
+				throw new XBeeParseException("Packet length is " + length.getLength() + " but frame contains " + (end - start - 3) + " bytes");
+			}
+
+			intApiId = this.read("API ID");
+
+			this.apiId = ApiId.get(intApiId);
+
+			if (apiId == null) {
+				this.apiId = ApiId.UNKNOWN;
+			}
+
+			response = responsePool != null ? responsePool.newResponse(intApiId) : registry.newResponse(intApiId);
+
+			if (response == null) {
+				response = new GenericResponse();
+			}
+
+			response.parse(this);
+			response.setChecksum(this.read("Checksum"));
+
+			if (!this.done) {
+				throw new XBeeParseException("There are remaining bytes according to stated packet length but we have read all the bytes we thought were required for this packet (if that makes sense)");
+			}
+
+			response.finish();
+		} catch (Exception e) {
+			log.error("Failed due to exception.  Returning ErrorResponse.  bytes read: " + bytesRead, e);
+
+			if (response != null) {
+				// return to the pool, if pooled
+				response.release();
+			}
+
+			response = new ErrorResponse();
+
+			((ErrorResponse)response).setErrorMsg(e.getMessage());
+			((ErrorResponse)response).setException(e);
+		}
+
+		response.setLength(length);
+		response.setApiId(apiId);
+		// preserve original byte array for transfer over networks
+		response.setPacketBytes(copy(raw, raw.position(), raw.limit(), response.getRawPacketByteArray()), 
+				copy(frame, start, end, response.getProcessedPacketByteArray()));
+
+		this.frame = null;
+
+		return response;
+	}
+
+	/**
+	 * Copies the bytes into reuse if it has the right length (a recycled response), otherwise into a new array
+	 */
+	private static byte[] copy(ByteBuffer buffer, int start, int end, byte[] reuse) {
+		byte[] bytes = reuse != null && reuse.length == end - start ? reuse : new byte[end - start];
+
+		if (buffer.hasArray()) {
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + start, bytes, 0, bytes.length);
+		} else {
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(start + i);
+			}
+		}
+
+		return bytes;
+	}
+
+	public int read(String context) throws IOException {
+		int b = this.read();
+		traceSink.trace(context, -1, bytesRead - 1, b);
+		return b;
+	}
+
+	public int read(String context, int index) throws IOException {
+		int b = this.read();
+		traceSink.trace(context, index, bytesRead - 1, b);
+		return b;
+	}
+
+	/**
+	 * Reads the next byte of the packet and verifies the checksum once the final byte is read
+	 */
+	public int read() throws IOException {
+		if (done) {
+			throw new XBeeParseException("Packet has read all of its bytes");
+		}
+
+		if (!frame.hasRemaining()) {
+			throw new XBeeParseException("Reached end of frame while reading packet!");
+		}
+
+		int b = frame.get() & 0xff;
+
+		bytesRead++;
+
+		// checksum does not include length bytes
+		if (bytesRead > 2) {
+			checksum+= b;
+
+			if (this.getFrameDataBytesRead() >= (length.get16BitValue() + 1)) {
+				// this is checksum and final byte of packet
+				done = true;
+
+				if ((checksum & 0xff) != 0xff) {
+					throw new XBeeParseException("Checksum is incorrect.  Expected 0xff, but got " + (checksum & 0xff));
+				}
+			}
+		}
+
+		return b;
+	}
+
+	/**
+	 * Reads all remaining bytes except for checksum
+	 */
+	public int[] readRemainingBytes() throws IOException {
+		return this.readRemainingBytes(null);
+	}
+
+	public int[] readRemainingBytes(int[] reuse) throws IOException {
+		// minus one since we don't read the checksum
+		int remaining = this.getRemainingBytes() - 1;
+		int[] value = reuse != null && reuse.length == remaining ? reuse : new int[remaining];
+
+		for (int i = 0; i < value.length; i++) {
+			value[i] = this.read("Remaining bytes", i);
+		}
+
+		return value;
+	}
+
+	public void skipRemainingBytes() throws IOException {
+		// minus one since we don't read the checksum
+		int remaining = this.getRemainingBytes() - 1;
+
+		for (int i = 0; i < remaining; i++) {
+			this.read();
+		}
+	}
+
+	public XBeeAddress64 parseAddress64() throws IOException {
+		return this.parseAddress64(null);
+	}
+
+	public XBeeAddress64 parseAddress64(XBeeAddress64 reuse) throws IOException {
+		XBeeAddress64 addr = reuse != null ? reuse : new XBeeAddress64();
+
+		for (int i = 0; i < 8; i++) {
+			addr.getAddress()[i] = this.read("64-bit Address byte", i);
+		}
+
+		return addr;
+	}
+
+	public XBeeAddress16 parseAddress16() throws IOException {
+		return this.parseAddress16(null);
+	}
+
+	public XBeeAddress16 parseAddress16(XBeeAddress16 reuse) throws IOException {
+		XBeeAddress16 addr16 = reuse != null ? reuse : new XBeeAddress16();
+
+		addr16.setMsb(this.read("Address 16 MSB"));
+		addr16.setLsb(this.read("Address 16 LSB"));
+
+		return addr16;
+	}
+
+	public int getFrameDataBytesRead() {
+		// subtract out the 2 length bytes
+		return this.getBytesRead() - 2;
+	}
+
+	public int getRemainingBytes() {
+		// add one for checksum byte (not included) in packet length
+		return this.length.get16BitValue() - this.getFrameDataBytesRead() + 1;
+	}
+
+	public int getBytesRead() {
+		return bytesRead;
+	}
+
+	public XBeePacketLength getLength() {
+		return length;
+	}
+
+	public ApiId getApiId() {
+		return apiId;
+	}
+
+	public int getIntApiId() {
+		return intApiId;
+	}
+
+	public TraceSink getTraceSink() {
+		return traceSink;
+	}
+
+	/**
+	 * Sets the sink that receives an event for each field byte read.  Default is TraceSink.NONE
+	 *
+	 * @param traceSink
+	 */
+	public void setTraceSink(TraceSink traceSink) {
+		this.traceSink = traceSink;
+	}
+
+	public ResponsePool getResponsePool() {
+		return responsePool;
+	}
+
+	/**
+	 * Sets the pool responses are taken from (recycling mode).  Default is null: responses are created by the registry.
+	 *
+	 * @param responsePool
+	 */
+	public void setResponsePool(ResponsePool responsePool) {
+		this.responsePool = responsePool;
+	}
+
+	public IoSampleSink getIoSampleSink() {
+		return ioSampleSink;
+	}
+
+	/**
+	 * Sets the sink that IO sample responses add their samples to.  Default is null
+	 * 
+	 * @param ioSampleSink
+	 */
+	public void setIoSampleSink(IoSampleSink ioSampleSink) {
+		this.ioSampleSink = ioSampleSink;
+	}
+
+	public int getIoSampleRate() {
+		return ioSampleRate;
+	}
+
+	/**
+	 * Sets the IO sample rate (IR) of the radios, in milliseconds.  Default is 0 (unknown)
+	 * 
+	 * @param ioSampleRate
+	 */
+	public void setIoSampleRate(int ioSampleRate) {
+		this.ioSampleRate = ioSampleRate;
+	}
+
+	public boolean isLazyParsing() {
+		return lazyParsing;
+	}
+
+	/**
+	 * When true, responses that support lazy parsing only parse the header fields; the body
+	 * is parsed when first accessed.  The checksum is always verified.
+	 *
+	 * @param lazyParsing
+	 */
+	public void setLazyParsing(boolean lazyParsing) {
+		this.lazyParsing = lazyParsing;
+	}
+}
@@ -0,0 +1,584 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.rapplogic.xbee.api.wpan.TxRequest16;
+import com.rapplogic.xbee.api.wpan.TxRequest64;
+import com.rapplogic.xbee.api.wpan.TxStatusResponse;
+import com.rapplogic.xbee.api.zigbee.ZNetTxRequest;
+import com.rapplogic.xbee.api.zigbee.ZNetTxStatusResponse;
+
+/**
+ * AIMD (additive increase, multiplicative decrease) congestion control of unicast transmit requests, driven by 
+ * TX status.  The controller limits the number of frames in flight (sent, but no TX status received yet) to each 
+ * destination and to the network as a whole.  Each TX status is correlated to its request by frame id:
+ * <ul>
+ * <li>SUCCESS grows the destination and network windows by 1/window, i.e. by one frame per window of successful sends</li>
+ * <li>MAC_FAILURE, NETWORK_ACK_FAILURE (ZNet) and NO_ACK (Series 1) halve the window of the destination</li>
+ * <li>CCA_FAILURE and RESOURCE_ERROR_* halve the network window, since the channel or the local radio is congested</li>
+ * <li>other statuses (e.g. ADDRESS_NOT_FOUND) free the slot without changing the windows</li>
+ * </ul>
+ * Frames whose status is not received within the status timeout are treated as lost (network window halved).
+ * <p/>
+ * XBee calls acquire before writing a request, template (sendTemplate) or packet (sendPacket), and before taking 
+ * any lock that serializes writes, which blocks the sending thread until the frame fits in both windows; sends to 
+ * other destinations are not held up.  Frames that are not unicast transmit requests (AT commands, broadcasts) or have 
+ * frame id 0 (no TX status) pass straight through.  Install with XBeeConfiguration.withCongestionController; XBee adds 
+ * the controller as a packet listener.
+ * <p/>
+ * The windows of up to MAX_DESTINATIONS destinations are kept; beyond that, the least recently used destination 
+ * without frames in flight is forgotten, and starts again from the initial window.
+ * <p/>
+ * This class is thread-safe
+ * <p/>
+ * @author andrew
+ *
+ */
+public class CongestionController implements PacketListener {
+
+	private final static Logger log = Logger.getLogger(CongestionController.class);
+	
+	public final static int DEFAULT_MAX_WINDOW = 16;
+	public final static int DEFAULT_MAX_DESTINATION_WINDOW = 4;
+	public final static int DEFAULT_STATUS_TIMEOUT = 10000;
+	
+	/**
+	 * Number of destination windows kept
+	 */
+	public final static int MAX_DESTINATIONS = 1024;
+	
+	// API ID, frame id and up to 8 bytes of destination address
+	private final static int PACKET_HEADER_LENGTH = 10;
+	
+	private final static double DECREASE_FACTOR = 0.5;
+	private final static double MIN_WINDOW = 1;
+	
+	/**
+	 * Window and frames in flight of one destination, or the network
+	 */
+	private static class Window {
+		private final double max;
+		private double size;
+		private int inFlight;
+		
+		Window(double max) {
+			this.max = max;
+			this.size = Math.min(2, max);
+		}
+		
+		boolean isOpen() {
+			// always allow one frame, however small the window
+			return inFlight == 0 || inFlight + 1 <= size;
+		}
+		
+		void increase() {
+			size = Math.min(max, size + 1 / size);
+		}
+		
+		void decrease() {
+			size = Math.max(MIN_WINDOW, size * DECREASE_FACTOR);
+		}
+	}
+	
+	/**
+	 * A frame in flight
+	 */
+	private static class Slot {
+		private final Window destination;
+		private final long sentAt;
+		
+		Slot(Window destination, long sentAt) {
+			this.destination = destination;
+			this.sentAt = sentAt;
+		}
+	}
+	
+	/**
+	 * Map key of a destination address.  Includes the address length, so a 16-bit address never equals a 64-bit address.
+	 */
+	private final static class Destination {
+		private final long address;
+		private final int length;
+		
+		Destination(XBeeAddress address) {
+			int[] bytes = address.getAddress();
+			long value = 0;
+			
+			for (int i = 0; i < bytes.length; i++) {
+				value = (value << 8) | (bytes[i] & 0xff);
+			}
+			
+			this.address = value;
+			this.length = bytes.length;
+		}
+		
+		public boolean equals(Object o) {
+			if (!(o instanceof Destination)) {
+				return false;
+			}
+			
+			Destination that = (Destination) o;
+			return address == that.address && length == that.length;
+		}
+		
+		public int hashCode() {
+			return (int) (address ^ (address >>> 32)) * 31 + length;
+		}
+	}
+	
+	/**
+	 * Destination windows in access order, forgetting the least recently used when full.  A window with frames in 
+	 * flight is kept, since a new window for its destination would not count them.
+	 */
+	private static class DestinationMap extends LinkedHashMap<Destination, Window> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		DestinationMap() {
+			super(16, 0.75f, true);
+		}
+		
+		protected boolean removeEldestEntry(Map.Entry<Destination, Window> eldest) {
+			return this.size() > MAX_DESTINATIONS && eldest.getValue().inFlight == 0;
+		}
+	}
+	
+	private final int maxDestinationWindow;
+	private final long statusTimeoutNanos;
+	
+	private final Window network;
+	private final Map<Destination, Window> destinations = new DestinationMap();
+	// indexed by frame id
+	private final Slot[] slots = new Slot[256];
+	// called whenever a frame leaves the windows (RequestQueue)
+	private final List<Runnable> releaseListeners = new CopyOnWriteArrayList<Runnable>();
+	
+	private long successes;
+	private long failures;
+	private long timeouts;
+	
+	public CongestionController() {
+		this(DEFAULT_MAX_WINDOW, DEFAULT_MAX_DESTINATION_WINDOW, DEFAULT_STATUS_TIMEOUT);
+	}
+	
+	/**
+	 * @param maxWindow maximum frames in flight in the network
+	 * @param maxDestinationWindow maximum frames in flight to one destination
+	 * @param statusTimeout milliseconds after which a frame without TX status is considered lost
+	 */
+	public CongestionController(int maxWindow, int maxDestinationWindow, int statusTimeout) {
+		if (maxWindow < 1 || maxDestinationWindow < 1) {
+			throw new IllegalArgumentException("Windows must be >= 1");
+		}
+		
+		if (statusTimeout <= 0) {
+			throw new IllegalArgumentException("statusTimeout must be > 0");
+		}
+		
+		this.network = new Window(maxWindow);
+		this.maxDestinationWindow = maxDestinationWindow;
+		this.statusTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(statusTimeout);
+	}
+	
+	/**
+	 * Returns the destination address of a unicast transmit request, or null if the request is not a transmit request
+	 */
+	static XBeeAddress getDestination(XBeeRequest request) {
+		if (request instanceof ZNetTxRequest) {
+			return ((ZNetTxRequest) request).getDestAddr64();
+		} else if (request instanceof TxRequest64) {
+			return ((TxRequest64) request).getRemoteAddr64();
+		} else if (request instanceof TxRequest16) {
+			return ((TxRequest16) request).getRemoteAddr16();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns the destination address of an escaped transmit request packet, or null if the packet is not a 
+	 * transmit request.  The frame data, from the API ID, is returned in header.
+	 */
+	private static XBeeAddress getDestination(byte[] packet, int offset, int length, int[] header) {
+		int end = offset + length;
+		// skip the start byte and the length
+		int skip = 3;
+		int count = 0;
+		
+		for (int i = offset; i < end && count < header.length; i++) {
+			int b = packet[i] & 0xff;
+			
+			if (b == XBeePacket.SpecialByte.ESCAPE.getValue() && i + 1 < end) {
+				b = 0x20 ^ (packet[++i] & 0xff);
+			}
+			
+			if (skip > 0) {
+				skip--;
+			} else {
+				header[count++] = b;
+			}
+		}
+		
+		if (count < 4) {
+			return null;
+		}
+		
+		int apiId = header[0];
+		
+		if (apiId == ApiId.TX_REQUEST_16.getValue()) {
+			return new XBeeAddress16(header[2], header[3]);
+		}
+		
+		if (count < PACKET_HEADER_LENGTH) {
+			return null;
+		}
+		
+		if (apiId == ApiId.TX_REQUEST_64.getValue() || apiId == ApiId.ZNET_TX_REQUEST.getValue() || 
+				apiId == ApiId.ZNET_EXPLICIT_TX_REQUEST.getValue()) {
+			int[] address = new int[8];
+			System.arraycopy(header, 2, address, 0, address.length);
+			return new XBeeAddress64(address);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Waits until the request fits in the windows and records it as in flight.  Returns immediately if the request 
+	 * is not controlled.
+	 * 
+	 * @param request
+	 * @return true if the request is controlled, and so is now in flight
+	 * @throws InterruptedException
+	 */
+	public boolean acquire(XBeeRequest request) throws InterruptedException {
+		return this.acquire(getDestination(request), request.getFrameId());
+	}
+	
+	/**
+	 * Same as acquire(XBeeRequest), for a frame sent without a request object (e.g. XBee.sendTemplate).  Returns 
+	 * immediately if the destination is null or broadcast, or the frame id is 0.
+	 * 
+	 * @param address
+	 * @param frameId
+	 * @return true if the frame is controlled, and so is now in flight
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean acquire(XBeeAddress address, int frameId) throws InterruptedException {
+		if (frameId == XBeeRequest.NO_RESPONSE_FRAME_ID || !isControlled(address)) {
+			return false;
+		}
+		
+		Destination key = new Destination(address);
+		
+		Window destination = destinations.get(key);
+		
+		if (destination == null) {
+			destination = new Window(maxDestinationWindow);
+			destinations.put(key, destination);
+		}
+		
+		while (!network.isOpen() || !destination.isOpen()) {
+			long wait = this.expire(System.nanoTime());
+			
+			if (network.isOpen() && destination.isOpen()) {
+				break;
+			}
+			
+			TimeUnit.NANOSECONDS.timedWait(this, wait);
+		}
+		
+		frameId = frameId & 0xff;
+		
+		if (slots[frameId] != null) {
+			// frame id reused before its status arrived
+			log.warn("Frame id " + frameId + " is already in flight; releasing the previous frame");
+			this.release(frameId);
+		}
+		
+		slots[frameId] = new Slot(destination, System.nanoTime());
+		destination.inFlight++;
+		network.inFlight++;
+		
+		return true;
+	}
+	
+	/**
+	 * Returns true if a frame to the address would fit in the windows now, so acquire would not wait, or if frames to 
+	 * the address are not controlled.  Frames past the status timeout are released first.  Nothing is recorded: the 
+	 * frame must still be acquired when sent.  Used by RequestQueue to skip requests to congested destinations.
+	 * 
+	 * @param address
+	 */
+	public synchronized boolean isOpen(XBeeAddress address) {
+		if (!isControlled(address)) {
+			return true;
+		}
+		
+		this.expire(System.nanoTime());
+		
+		Window destination = destinations.get(new Destination(address));
+		return network.isOpen() && (destination == null || destination.isOpen());
+	}
+	
+	private static boolean isControlled(XBeeAddress address) {
+		return address != null && !XBeeAddress64.BROADCAST.equals(address) && !XBeeAddress16.BROADCAST.equals(address);
+	}
+	
+	/**
+	 * Same as acquire(XBeeRequest), for an escaped packet, including the start byte (e.g. XBee.sendPacket).  Returns 
+	 * immediately if the packet is not a unicast transmit request.
+	 * 
+	 * @param packet
+	 * @param offset
+	 * @param length
+	 * @return the frame id, or 0 if the packet is not controlled
+	 * @throws InterruptedException
+	 */
+	public int acquire(byte[] packet, int offset, int length) throws InterruptedException {
+		int[] header = new int[PACKET_HEADER_LENGTH];
+		XBeeAddress destination = getDestination(packet, offset, length, header);
+		
+		if (destination == null || !this.acquire(destination, header[1])) {
+			return XBeeRequest.NO_RESPONSE_FRAME_ID;
+		}
+		
+		return header[1];
+	}
+	
+	/**
+	 * Same as acquire(byte[], int, int)
+	 */
+	public int acquire(int[] packet) throws InterruptedException {
+		// start byte, length and header, all escaped
+		byte[] head = new byte[Math.min(packet.length, (3 + PACKET_HEADER_LENGTH) * 2)];
+		
+		for (int i = 0; i < head.length; i++) {
+			head[i] = (byte) packet[i];
+		}
+		
+		return this.acquire(head, 0, head.length);
+	}
+	
+	/**
+	 * Releases a frame that was acquired but could not be sent, without changing the windows.  Must only be called 
+	 * when acquire returned true (or a frame id)
+	 * 
+	 * @param frameId
+	 */
+	public synchronized void cancel(int frameId) {
+		this.release(frameId & 0xff);
+	}
+	
+	/**
+	 * Releases frames that have been in flight longer than the status timeout and returns the time until the next 
+	 * one expires, in nanoseconds
+	 */
+	private long expire(long now) {
+		long next = statusTimeoutNanos;
+		
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] == null) {
+				continue;
+			}
+			
+			long age = now - slots[i].sentAt;
+			
+			if (age >= statusTimeoutNanos) {
+				log.warn("No TX status for frame id " + i + " after " + TimeUnit.NANOSECONDS.toMillis(age) + "ms");
+				
+				this.release(i);
+				network.decrease();
+				timeouts++;
+			} else {
+				next = Math.min(next, statusTimeoutNanos - age);
+			}
+		}
+		
+		return next;
+	}
+	
+	private Slot release(int frameId) {
+		Slot slot = slots[frameId];
+		
+		if (slot != null) {
+			slots[frameId] = null;
+			slot.destination.inFlight--;
+			network.inFlight--;
+			this.notifyAll();
+			
+			// listeners must not block or take locks held while calling this controller
+			for (Runnable listener : releaseListeners) {
+				listener.run();
+			}
+		}
+		
+		return slot;
+	}
+	
+	/**
+	 * Adjusts the windows from TX status responses
+	 */
+	public void processResponse(XBeeResponse response) {
+		if (response instanceof ZNetTxStatusResponse) {
+			ZNetTxStatusResponse status = (ZNetTxStatusResponse) response;
+			
+			if (status.getDeliveryStatus() == null) {
+				this.update(status.getFrameId(), Signal.NONE);
+				return;
+			}
+			
+			switch (status.getDeliveryStatus()) {
+			case SUCCESS:
+				this.update(status.getFrameId(), Signal.SUCCESS);
+				break;
+			case MAC_FAILURE:
+			case NETWORK_ACK_FAILURE:
+				this.update(status.getFrameId(), Signal.DESTINATION_CONGESTED);
+				break;
+			case CCA_FAILURE:
+			case RESOURCE_ERROR_LACK_FREE_BUFFERS:
+			case RESOURCE_ERROR_LACK_FREE_BUFFERS_0x32:
+				this.update(status.getFrameId(), Signal.NETWORK_CONGESTED);
+				break;
+			default:
+				this.update(status.getFrameId(), Signal.NONE);
+			}
+		} else if (response instanceof TxStatusResponse) {
+			TxStatusResponse status = (TxStatusResponse) response;
+			
+			if (status.getStatus() == null) {
+				this.update(status.getFrameId(), Signal.NONE);
+				return;
+			}
+			
+			switch (status.getStatus()) {
+			case SUCCESS:
+				this.update(status.getFrameId(), Signal.SUCCESS);
+				break;
+			case NO_ACK:
+				this.update(status.getFrameId(), Signal.DESTINATION_CONGESTED);
+				break;
+			case CCA_FAILURE:
+				this.update(status.getFrameId(), Signal.NETWORK_CONGESTED);
+				break;
+			default:
+				this.update(status.getFrameId(), Signal.NONE);
+			}
+		}
+	}
+	
+	private enum Signal {
+		SUCCESS,
+		DESTINATION_CONGESTED,
+		NETWORK_CONGESTED,
+		NONE
+	}
+	
+	private synchronized void update(int frameId, Signal signal) {
+		Slot slot = this.release(frameId & 0xff);
+		
+		if (slot == null) {
+			// not controlled by us
+			return;
+		}
+		
+		switch (signal) {
+		case SUCCESS:
+			slot.destination.increase();
+			network.increase();
+			successes++;
+			break;
+		case DESTINATION_CONGESTED:
+			slot.destination.decrease();
+			failures++;
+			break;
+		case NETWORK_CONGESTED:
+			network.decrease();
+			failures++;
+			break;
+		default:
+			break;
+		}
+	}
+	
+	void addReleaseListener(Runnable listener) {
+		releaseListeners.add(listener);
+	}
+	
+	void removeReleaseListener(Runnable listener) {
+		releaseListeners.remove(listener);
+	}
+	
+	/**
+	 * Returns the milliseconds after which a frame without TX status is considered lost
+	 */
+	public long getStatusTimeout() {
+		return TimeUnit.NANOSECONDS.toMillis(statusTimeoutNanos);
+	}
+	
+	/**
+	 * Returns the current network window, in frames
+	 */
+	public synchronized double getWindow() {
+		return network.size;
+	}
+	
+	/**
+	 * Returns the current window of the destination, or the initial window if nothing has been sent to it
+	 */
+	public synchronized double getWindow(XBeeAddress destination) {
+		Window window = destinations.get(new Destination(destination));
+		return window != null ? window.size : new Window(maxDestinationWindow).size;
+	}
+	
+	/**
+	 * Returns the number of frames in flight in the network
+	 */
+	public synchronized int getInFlight() {
+		return network.inFlight;
+	}
+	
+	public synchronized long getSuccesses() {
+		return successes;
+	}
+	
+	/**
+	 * Returns the number of TX status failures that shrank a window
+	 */
+	public synchronized long getFailures() {
+		return failures;
+	}
+	
+	/**
+	 * Returns the number of frames for which no TX status was received within the status timeout
+	 */
+	public synchronized long getTimeouts() {
+		return timeouts;
+	}
+}
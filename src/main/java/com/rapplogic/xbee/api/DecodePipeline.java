@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Decodes frames in parallel.  The reader thread only frames and verifies the checksum (FrameDecoder); each frame is then 
+ * handed to one of a number of decode lanes, each a single thread with its own parser.  The lane is chosen by the 
+ * source address in the frame header so all frames from a radio are decoded, and dispatched, in the order received.  
+ * Frames without a source address (AT, TX status, modem status etc.) and frames that fail the checksum always use the first lane.
+ * <p/>
+ * Each lane holds at most maxQueueSize frames waiting to be decoded.  As with the response queue, when a lane is full the 
+ * oldest frame is dropped to make room.
+ * <p/>
+ * Enable with XBeeConfiguration.withDecodeThreads
+ * <p/>
+ * @author andrew
+ *
+ */
+class DecodePipeline implements FrameDecoder.FrameHandler {
+
+	private final static Logger log = Logger.getLogger(DecodePipeline.class);
+	
+	private final InputStreamThread target;
+	private final ExecutorService[] lanes;
+	private final ByteBufferPacketParser[] parsers;
+	
+	DecodePipeline(InputStreamThread target, int decodeThreads, ResponseHandlerRegistry registry, ResponsePool responsePool, XBeeConfiguration conf) {
+		this.target = target;
+		this.lanes = new ExecutorService[decodeThreads];
+		this.parsers = new ByteBufferPacketParser[decodeThreads];
+		
+		final int capacity = Math.max(1, conf.getMaxQueueSize());
+		
+		// same rule as the response queue: trim the oldest frame to make room
+		RejectedExecutionHandler trim = new ThreadPoolExecutor.DiscardOldestPolicy() {
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+				if (!e.isShutdown()) {
+					log.info("Decode lane has reached the maximum size of " + capacity + " packets.  Trimming a packet from head of lane to make room");
+				}
+				
+				super.rejectedExecution(r, e);
+			}
+		};
+		
+		for (int i = 0; i < decodeThreads; i++) {
+			lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity), trim);
+			parsers[i] = new ByteBufferPacketParser(registry);
+			parsers[i].setLazyParsing(conf.isLazyParsing());
+			parsers[i].setTraceSink(conf.getTraceSink());
+			parsers[i].setIoSampleSink(conf.getIoSampleSink());
+			parsers[i].setIoSampleRate(conf.getIoSampleRate());
+			parsers[i].setResponsePool(responsePool);
+		}
+	}
+	
+	/**
+	 * Called by the reader thread.  Copies the frame (the decoder reuses its buffers) and submits it to a lane
+	 */
+	public void handleFrame(FrameDecoder decoder) {
+		final byte[] frame = copy(decoder.getFrameBuffer());
+		final byte[] raw = copy(decoder.getRawBuffer());
+		
+		final int lane = decoder.isChecksumValid() ? (getSourceHash(frame) & 0x7fffffff) % lanes.length : 0;
+		final ByteBufferPacketParser parser = parsers[lane];
+		
+		lanes[lane].submit(new Runnable() {
+			public void run() {
+				XBeeResponse response = parser.parsePacket(ByteBuffer.wrap(frame), ByteBuffer.wrap(raw));
+				
+				if (log.isInfoEnabled()) {
+					log.info("Received packet from XBee: " + response);	
+				}
+				
+				try {
+					target.addResponse(response);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Called by the reader thread.  Reported on the first lane, with the other frames without a source address
+	 */
+	public void handleDiscardedFrame(FrameDecoder decoder, String reason) {
+		final XBeeResponse response = InputStreamThread.newErrorResponse(decoder, reason);
+		
+		lanes[0].submit(new Runnable() {
+			public void run() {
+				try {
+					target.addResponse(response);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns a hash of the source address of the (un-escaped) frame, or 0 if the frame has no source address
+	 */
+	static int getSourceHash(byte[] frame) {
+		// frame starts with the 2 length bytes
+		if (frame.length < 4) {
+			return 0;
+		}
+		
+		int start;
+		int length;
+		
+		switch (frame[2] & 0xff) {
+		case 0x80: // RX_64_RESPONSE
+		case 0x82: // RX_64_IO_RESPONSE
+		case 0x90: // ZNET_RX_RESPONSE
+		case 0x91: // ZNET_EXPLICIT_RX_RESPONSE
+		case 0x92: // ZNET_IO_SAMPLE_RESPONSE
+		case 0x95: // ZNET_IO_NODE_IDENTIFIER_RESPONSE
+			start = 3;
+			length = 8;
+			break;
+		case 0x81: // RX_16_RESPONSE
+		case 0x83: // RX_16_IO_RESPONSE
+			start = 3;
+			length = 2;
+			break;
+		case 0x97: // REMOTE_AT_RESPONSE, after frame id
+			start = 4;
+			length = 8;
+			break;
+		default:
+			return 0;
+		}
+		
+		if (frame.length < start + length) {
+			return 0;
+		}
+		
+		int hash = 1;
+		
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + frame[i];
+		}
+		
+		// spread the bits since addresses of a network share most of their bytes
+		hash^= (hash >>> 16);
+		hash^= (hash >>> 8);
+		
+		return hash;
+	}
+	
+	static byte[] copy(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+	
+	void shutdown() {
+		for (ExecutorService lane : lanes) {
+			lane.shutdownNow();
+		}
+	}
+}
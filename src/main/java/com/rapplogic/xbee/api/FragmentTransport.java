@@ -0,0 +1,722 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.rapplogic.xbee.api.HardwareVersion.RadioType;
+import com.rapplogic.xbee.api.wpan.RxResponse64;
+import com.rapplogic.xbee.api.wpan.TxRequest64;
+import com.rapplogic.xbee.api.wpan.TxStatusResponse;
+import com.rapplogic.xbee.api.zigbee.ZNetRxResponse;
+import com.rapplogic.xbee.api.zigbee.ZNetTxRequest;
+import com.rapplogic.xbee.api.zigbee.ZNetTxStatusResponse;
+
+/**
+ * Sends messages larger than the radio's maximum payload by splitting them into fragments, and reassembles 
+ * fragments received from other radios into messages.  Both radios must use a FragmentTransport.
+ * <p/>
+ * Each fragment is sent as a ZNetTxRequest (or TxRequest64 for Series 1 radios) whose payload starts with a 4 byte 
+ * header: HEADER_MAGIC, message id, fragment index and fragment count.  A message may have up to 255 fragments.  
+ * The frame id of each fragment is registered in the XBee's PendingRequestTable, so it is never in flight with another 
+ * request that waits for a response, and the TX status is matched through the table.  Fragments are 
+ * pipelined: up to window fragments are in flight (sent but TX status not yet received) at once, rather than 
+ * waiting for the status of each before sending the next.  A fragment whose TX status is a failure, or does not arrive 
+ * within the status timeout, is retransmitted on its own (selective retransmission) until it has been 
+ * tried maxRetries + 1 times.  
+ * <p/>
+ * The receiver reassembles by source address and message id.  Duplicate fragments are ignored and an incomplete 
+ * message is discarded after the reassembly timeout.  A fragment retransmitted after its message completed (e.g. the 
+ * TX status was lost) starts a new message that expires, so messages are delivered at most once, except for 
+ * single-fragment messages.
+ * <p/>
+ * The transport looks at all ZNetRxResponse and RxResponse64 packets; packets that do not start with HEADER_MAGIC, 
+ * or have an invalid header, are ignored.  
+ * Call queryMaxPayloadSize() once connected to size fragments with the radio's NP parameter.
+ * <p/>
+ * This class is thread-safe.  send blocks until the message is delivered, and any number of threads may send 
+ * at once.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class FragmentTransport implements PacketListener {
+
+	private final static Logger log = Logger.getLogger(FragmentTransport.class);
+	
+	/**
+	 * Receives reassembled messages
+	 */
+	public interface MessageListener {
+		void messageReceived(XBeeAddress64 source, int[] message);
+	}
+	
+	public final static int HEADER_SIZE = 4;
+	/**
+	 * First byte of every fragment: identifies the packet as a fragment, and the version of the header
+	 */
+	public final static int HEADER_MAGIC = 0xf1;
+	public final static int MAX_FRAGMENTS = 255;
+	public final static int DEFAULT_WINDOW = 4;
+	public final static int DEFAULT_MAX_RETRIES = 3;
+	public final static int DEFAULT_STATUS_TIMEOUT = 5000;
+	public final static int DEFAULT_REASSEMBLY_TIMEOUT = 30000;
+	
+	private enum State {
+		PENDING,
+		IN_FLIGHT,
+		DELIVERED
+	}
+	
+	/**
+	 * A message being sent; guarded by itself
+	 */
+	private static class Transfer {
+		private final XBeeAddress64 destination;
+		private final Fragment[] fragments;
+		private int inFlight;
+		private int delivered;
+		private String failure;
+		
+		Transfer(XBeeAddress64 destination, int count) {
+			this.destination = destination;
+			this.fragments = new Fragment[count];
+		}
+		
+		/**
+		 * Marks pending fragments in flight, lowest index first, until the window is full
+		 */
+		List<Fragment> nextReady(int window) {
+			List<Fragment> ready = new ArrayList<Fragment>();
+			
+			for (int i = 0; i < fragments.length && inFlight < window; i++) {
+				if (fragments[i].state == State.PENDING) {
+					fragments[i].state = State.IN_FLIGHT;
+					fragments[i].attempts++;
+					inFlight++;
+					ready.add(fragments[i]);
+				}
+			}
+			
+			return ready;
+		}
+	}
+	
+	/**
+	 * Registered in the PendingRequestTable while in flight, so the TX status completes it
+	 */
+	private class Fragment implements PendingRequestTable.PendingRequest {
+		private final Transfer transfer;
+		private final int index;
+		private final int[] payload;
+		private State state = State.PENDING;
+		private int attempts;
+		private volatile TimingWheel.Timeout timeout;
+		// table the fragment is registered in, while in flight
+		private volatile PendingRequestTable pendingRequests;
+		
+		Fragment(Transfer transfer, int index, int[] payload) {
+			this.transfer = transfer;
+			this.index = index;
+			this.payload = payload;
+		}
+		
+		public void complete(XBeeFrameIdResponse response) {
+			boolean success;
+			
+			if (response instanceof ZNetTxStatusResponse) {
+				success = ((ZNetTxStatusResponse) response).isSuccess();
+			} else if (response instanceof TxStatusResponse) {
+				success = ((TxStatusResponse) response).isSuccess();
+			} else {
+				log.warn("Expected TX status for fragment " + index + " but got " + response.getApiId());
+				success = false;
+			}
+			
+			FragmentTransport.this.complete(response.getFrameId(), this, success);
+		}
+	}
+	
+	/**
+	 * Identifies a message being reassembled
+	 */
+	private static class Key {
+		private final long source;
+		private final int messageId;
+		
+		Key(long source, int messageId) {
+			this.source = source;
+			this.messageId = messageId;
+		}
+		
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			
+			Key that = (Key) o;
+			return source == that.source && messageId == that.messageId;
+		}
+		
+		public int hashCode() {
+			return (int) (source ^ (source >>> 32)) * 31 + messageId;
+		}
+	}
+	
+	private static class Reassembly {
+		private final int[][] fragments;
+		private int received;
+		private int length;
+		private TimingWheel.Timeout timeout;
+		
+		Reassembly(int count) {
+			this.fragments = new int[count][];
+		}
+		
+		int[] assemble() {
+			int[] message = new int[length];
+			int offset = 0;
+			
+			for (int[] fragment : fragments) {
+				System.arraycopy(fragment, 0, message, offset, fragment.length);
+				offset+= fragment.length;
+			}
+			
+			return message;
+		}
+	}
+	
+	private final XBee xbee;
+	private final RadioType radioType;
+	private final TimingWheel timingWheel;
+	// true if the wheel was created by this transport, and is stopped by shutdown
+	private final boolean ownTimingWheel;
+	private final List<MessageListener> listeners = new CopyOnWriteArrayList<MessageListener>();
+	
+	private volatile int maxPayloadSize;
+	private volatile int window = DEFAULT_WINDOW;
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+	private volatile int statusTimeout = DEFAULT_STATUS_TIMEOUT;
+	private volatile int reassemblyTimeout = DEFAULT_REASSEMBLY_TIMEOUT;
+	
+	// fragments in flight, indexed by frame id; guarded by this
+	private final Fragment[] inFlight = new Fragment[256];
+	private int nextMessageId;
+	
+	// guarded by itself
+	private final Map<Key, Reassembly> reassemblies = new HashMap<Key, Reassembly>();
+	
+	private final AtomicLong fragmentsSent = new AtomicLong();
+	private final AtomicLong fragmentsRetransmitted = new AtomicLong();
+	private final AtomicLong messagesReceived = new AtomicLong();
+	private final AtomicLong messagesExpired = new AtomicLong();
+	
+	/**
+	 * Creates a transport, with its own timing wheel, and adds it as a packet listener of the XBee, which must be connected.
+	 * 
+	 * @param xbee
+	 * @param radioType SERIES1 sends TxRequest64, otherwise ZNetTxRequest
+	 */
+	public FragmentTransport(XBee xbee, RadioType radioType) {
+		this(xbee, radioType, null);
+	}
+	
+	/**
+	 * Creates a transport that runs its retransmit and reassembly timers on the timing wheel (e.g. XBee.getTimingWheel), 
+	 * and adds it as a packet listener of the XBee, which must be connected.
+	 * 
+	 * @param xbee
+	 * @param radioType SERIES1 sends TxRequest64, otherwise ZNetTxRequest
+	 * @param timingWheel if null the transport creates its own
+	 */
+	public FragmentTransport(XBee xbee, RadioType radioType, TimingWheel timingWheel) {
+		this.xbee = xbee;
+		this.radioType = radioType;
+		this.maxPayloadSize = radioType == RadioType.SERIES1 ? TxRequest64.MAX_PAYLOAD_SIZE : ZNetTxRequest.ZNET_MAX_PAYLOAD_SIZE;
+		this.ownTimingWheel = timingWheel == null;
+		this.timingWheel = ownTimingWheel ? new TimingWheel() : timingWheel;
+		
+		xbee.addPacketListener(this);
+	}
+	
+	/**
+	 * Sets the maximum payload size from the radio's NP parameter (ZNet/ZB firmware).  If the radio does not 
+	 * support NP (e.g. Series 1) the current value is kept.  Returns the maximum payload size.
+	 * 
+	 * @throws XBeeException
+	 */
+	public int queryMaxPayloadSize() throws XBeeException {
+		XBeeResponse response = xbee.sendSynchronous(new AtCommand("NP"), DEFAULT_STATUS_TIMEOUT);
+		
+		try {
+			if (response instanceof AtCommandResponse && ((AtCommandResponse) response).isOk()) {
+				int np = 0;
+				
+				for (int b : ((AtCommandResponse) response).getValue()) {
+					np = (np << 8) | b;
+				}
+				
+				log.info("Radio's maximum payload size (NP) is " + np);
+				this.setMaxPayloadSize(np);
+			} else {
+				log.warn("NP is not supported by the radio; maximum payload size is " + maxPayloadSize);
+			}
+		} finally {
+			response.release();
+		}
+		
+		return maxPayloadSize;
+	}
+	
+	/**
+	 * Sends the message and waits until all fragments are delivered (TX status SUCCESS).  
+	 * 
+	 * @param destination
+	 * @param message
+	 * @throws XBeeException if a fragment could not be delivered
+	 */
+	public void send(XBeeAddress64 destination, int[] message) throws XBeeException {
+		int fragmentSize = maxPayloadSize - HEADER_SIZE;
+		int count = Math.max(1, (message.length + fragmentSize - 1) / fragmentSize);
+		
+		if (count > MAX_FRAGMENTS) {
+			throw new IllegalArgumentException("Message is too large: " + message.length + " bytes needs " + count + " fragments; the maximum is " + MAX_FRAGMENTS);
+		}
+		
+		int messageId;
+		
+		synchronized (this) {
+			messageId = nextMessageId;
+			nextMessageId = (nextMessageId + 1) & 0xff;
+		}
+		
+		Transfer transfer = new Transfer(destination, count);
+		
+		for (int i = 0; i < count; i++) {
+			int offset = i * fragmentSize;
+			int length = Math.min(fragmentSize, message.length - offset);
+			int[] payload = new int[HEADER_SIZE + length];
+			
+			payload[0] = HEADER_MAGIC;
+			payload[1] = messageId;
+			payload[2] = i;
+			payload[3] = count;
+			
+			System.arraycopy(message, offset, payload, HEADER_SIZE, length);
+			
+			transfer.fragments[i] = new Fragment(transfer, i, payload);
+		}
+		
+		try {
+			while (true) {
+				List<Fragment> ready;
+				
+				synchronized (transfer) {
+					while (true) {
+						if (transfer.failure != null) {
+							throw new XBeeException(transfer.failure);
+						}
+						
+						if (transfer.delivered == count) {
+							return;
+						}
+						
+						ready = transfer.nextReady(window);
+						
+						if (!ready.isEmpty()) {
+							break;
+						}
+						
+						// woken by TX status or timeout
+						transfer.wait();
+					}
+				}
+				
+				// send outside the lock, since sending may block until TX status is received
+				for (Fragment fragment : ready) {
+					this.transmit(fragment);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new XBeeException(e);
+		} finally {
+			this.abandon(transfer);
+		}
+	}
+	
+	private void transmit(final Fragment fragment) throws XBeeException, InterruptedException {
+		final int frameId = this.register(fragment);
+		
+		if (fragment.attempts > 1) {
+			fragmentsRetransmitted.incrementAndGet();
+			
+			if (log.isDebugEnabled()) {
+				log.debug("Retransmitting fragment " + fragment.index + ", attempt " + fragment.attempts);
+			}
+		}
+		
+		fragment.timeout = timingWheel.schedule(new Runnable() {
+			public void run() {
+				// false if the TX status arrived first
+				if (fragment.pendingRequests.remove(frameId, fragment)) {
+					complete(frameId, fragment, false);
+				}
+			}
+		}, statusTimeout, TimeUnit.MILLISECONDS);
+		
+		XBeeRequest request;
+		
+		if (radioType == RadioType.SERIES1) {
+			request = new TxRequest64(fragment.transfer.destination, frameId, fragment.payload);
+		} else {
+			request = new ZNetTxRequest(frameId, fragment.transfer.destination, XBeeAddress16.ZNET_BROADCAST, 
+					ZNetTxRequest.DEFAULT_BROADCAST_RADIUS, ZNetTxRequest.Option.UNICAST, fragment.payload);
+		}
+		
+		// on failure, send abandons the transfer, which releases the frame id
+		xbee.sendAsynchronous(request);
+		fragmentsSent.incrementAndGet();
+	}
+	
+	/**
+	 * Registers the fragment in the XBee's PendingRequestTable, which allocates a frame id that is not in flight.  
+	 * Waits up to the status timeout if all frame ids are in flight.
+	 */
+	private int register(Fragment fragment) throws XBeeException, InterruptedException {
+		PendingRequestTable pendingRequests = xbee.getPendingRequestTable();
+		int frameId = pendingRequests.register(fragment, statusTimeout);
+		
+		if (frameId == 0) {
+			throw new XBeeException("No frame id available: all are in flight");
+		}
+		
+		fragment.pendingRequests = pendingRequests;
+		
+		synchronized (this) {
+			inFlight[frameId] = fragment;
+		}
+		
+		return frameId;
+	}
+	
+	/**
+	 * Called with the TX status of a fragment, or on timeout, after the fragment was removed from the 
+	 * PendingRequestTable.  The fragment is only completed if it is still in flight with this frame id.
+	 */
+	private void complete(int frameId, Fragment fragment, boolean success) {
+		synchronized (this) {
+			if (inFlight[frameId] != fragment) {
+				return;
+			}
+			
+			inFlight[frameId] = null;
+		}
+		
+		if (fragment.timeout != null) {
+			fragment.timeout.cancel();
+		}
+		
+		Transfer transfer = fragment.transfer;
+		
+		synchronized (transfer) {
+			if (fragment.state != State.IN_FLIGHT) {
+				return;
+			}
+			
+			transfer.inFlight--;
+			
+			if (success) {
+				fragment.state = State.DELIVERED;
+				transfer.delivered++;
+			} else if (fragment.attempts > maxRetries) {
+				transfer.failure = "Fragment " + fragment.index + " of " + transfer.fragments.length + " to " + transfer.destination + 
+						" was not delivered after " + fragment.attempts + " attempts";
+			} else {
+				// retransmit
+				fragment.state = State.PENDING;
+			}
+			
+			transfer.notifyAll();
+		}
+	}
+	
+	/**
+	 * Removes the fragments of the transfer that are still in flight, releasing their frame ids
+	 */
+	private synchronized void abandon(Transfer transfer) {
+		for (int i = 0; i < inFlight.length; i++) {
+			if (inFlight[i] != null && inFlight[i].transfer == transfer) {
+				this.remove(i);
+			}
+		}
+	}
+	
+	/**
+	 * Removes the fragment in flight with the frame id; must hold the lock of this
+	 */
+	private Fragment remove(int frameId) {
+		Fragment fragment = inFlight[frameId];
+		
+		if (fragment.timeout != null) {
+			fragment.timeout.cancel();
+		}
+		
+		fragment.pendingRequests.remove(frameId, fragment);
+		inFlight[frameId] = null;
+		return fragment;
+	}
+	
+	public void processResponse(XBeeResponse response) {
+		// TX status is delivered through the PendingRequestTable
+		if (response instanceof ZNetRxResponse) {
+			ZNetRxResponse rx = (ZNetRxResponse) response;
+			this.receive(rx.getRemoteAddress64(), rx.getData());
+		} else if (response instanceof RxResponse64) {
+			RxResponse64 rx = (RxResponse64) response;
+			this.receive(rx.getRemoteAddress(), rx.getData());
+		}
+	}
+	
+	private void receive(XBeeAddress64 source, int[] data) {
+		if (data == null || data.length < HEADER_SIZE || data[0] != HEADER_MAGIC) {
+			return;
+		}
+		
+		int messageId = data[1];
+		int index = data[2];
+		int count = data[3];
+		
+		if (count == 0 || index >= count) {
+			if (log.isDebugEnabled()) {
+				log.debug("Ignoring packet with an invalid fragment header from " + source);
+			}
+			
+			return;
+		}
+		
+		final Key key = new Key(source.toLong(), messageId);
+		int[] message = null;
+		
+		synchronized (reassemblies) {
+			Reassembly reassembly = reassemblies.get(key);
+			
+			if (reassembly == null || reassembly.fragments.length != count) {
+				if (reassembly != null) {
+					reassembly.timeout.cancel();
+				}
+				
+				final Reassembly created = new Reassembly(count);
+				
+				created.timeout = timingWheel.schedule(new Runnable() {
+					public void run() {
+						expire(key, created);
+					}
+				}, reassemblyTimeout, TimeUnit.MILLISECONDS);
+				
+				reassemblies.put(key, created);
+				reassembly = created;
+			}
+			
+			if (reassembly.fragments[index] != null) {
+				// duplicate
+				return;
+			}
+			
+			reassembly.fragments[index] = Arrays.copyOfRange(data, HEADER_SIZE, data.length);
+			reassembly.received++;
+			reassembly.length+= data.length - HEADER_SIZE;
+			
+			if (reassembly.received == count) {
+				reassemblies.remove(key);
+				reassembly.timeout.cancel();
+				message = reassembly.assemble();
+			}
+		}
+		
+		if (message != null) {
+			messagesReceived.incrementAndGet();
+			
+			// the address may be recycled with the response
+			XBeeAddress64 copy = new XBeeAddress64(source.getAddress().clone());
+			
+			for (MessageListener listener : listeners) {
+				try {
+					listener.messageReceived(copy, message);
+				} catch (Throwable t) {
+					log.error("Error in message listener", t);
+				}
+			}
+		}
+	}
+	
+	private void expire(Key key, Reassembly reassembly) {
+		synchronized (reassemblies) {
+			if (reassemblies.get(key) != reassembly) {
+				return;
+			}
+			
+			reassemblies.remove(key);
+		}
+		
+		messagesExpired.incrementAndGet();
+		log.warn("Discarding incomplete message " + key.messageId + ": received " + reassembly.received + " of " + reassembly.fragments.length + " fragments");
+	}
+	
+	/**
+	 * Removes the packet listener and stops the timers.  Sends in progress fail.
+	 */
+	public void shutdown() {
+		xbee.removePacketListener(this);
+		
+		if (ownTimingWheel) {
+			timingWheel.stop();
+		}
+		
+		List<Fragment> fragments = new ArrayList<Fragment>();
+		
+		synchronized (this) {
+			for (int i = 0; i < inFlight.length; i++) {
+				if (inFlight[i] != null) {
+					fragments.add(this.remove(i));
+				}
+			}
+		}
+		
+		synchronized (reassemblies) {
+			for (Reassembly reassembly : reassemblies.values()) {
+				reassembly.timeout.cancel();
+			}
+			
+			reassemblies.clear();
+		}
+		
+		for (Fragment fragment : fragments) {
+			synchronized (fragment.transfer) {
+				fragment.transfer.failure = "Transport was shut down";
+				fragment.transfer.notifyAll();
+			}
+		}
+	}
+	
+	public void addMessageListener(MessageListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeMessageListener(MessageListener listener) {
+		listeners.remove(listener);
+	}
+	
+	public int getMaxPayloadSize() {
+		return maxPayloadSize;
+	}
+
+	/**
+	 * Sets the maximum payload of a fragment, including the header
+	 * 
+	 * @param maxPayloadSize
+	 */
+	public void setMaxPayloadSize(int maxPayloadSize) {
+		if (maxPayloadSize <= HEADER_SIZE) {
+			throw new IllegalArgumentException("maxPayloadSize must be > " + HEADER_SIZE);
+		}
+		
+		this.maxPayloadSize = maxPayloadSize;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Sets the number of fragments of a message that may be in flight at once.  Default is 4
+	 * 
+	 * @param window
+	 */
+	public void setWindow(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("window must be >= 1");
+		}
+		
+		this.window = window;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public int getStatusTimeout() {
+		return statusTimeout;
+	}
+
+	/**
+	 * Sets how long to wait for the TX status of a fragment before retransmitting, in milliseconds
+	 * 
+	 * @param statusTimeout
+	 */
+	public void setStatusTimeout(int statusTimeout) {
+		this.statusTimeout = statusTimeout;
+	}
+
+	public int getReassemblyTimeout() {
+		return reassemblyTimeout;
+	}
+
+	/**
+	 * Sets how long an incomplete message is kept, in milliseconds, from its first fragment
+	 * 
+	 * @param reassemblyTimeout
+	 */
+	public void setReassemblyTimeout(int reassemblyTimeout) {
+		this.reassemblyTimeout = reassemblyTimeout;
+	}
+
+	public long getFragmentsSent() {
+		return fragmentsSent.get();
+	}
+
+	public long getFragmentsRetransmitted() {
+		return fragmentsRetransmitted.get();
+	}
+
+	public long getMessagesReceived() {
+		return messagesReceived.get();
+	}
+
+	/**
+	 * Returns the number of incomplete messages discarded after the reassembly timeout
+	 */
+	public long getMessagesExpired() {
+		return messagesExpired.get();
+	}
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.nio.ByteBuffer;
+
+import org.apache.log4j.Logger;
+
+import com.rapplogic.xbee.util.ByteUtils;
+
+/**
+ * Incremental frame decoder.  Bytes are pushed in whatever chunks are available (e.g. the result
+ * of a bulk read from the input stream) and the decoder resumes where it left off, so a frame may
+ * be split across any number of reads.
+ * <p/>
+ * The decoder walks the frame structure (start byte, length, frame data, checksum), un-escaping
+ * as it goes.  When the checksum byte is received the FrameHandler is called; the frame is then
+ * available as primitive bytes from getRawBuffer() (escaped) and getFrameBuffer() (un-escaped).
+ * The buffers are reused for the next frame so they are only valid for the duration of the callback.
+ * <p/>
+ * In recovery mode the decoder resynchronizes after corruption instead of waiting for the next frame boundary.  
+ * Since frames are escaped (AP=2), a start byte never occurs inside a frame, so each byte of the frame 
+ * in progress is checked for a start byte: if one is found the frame is considered truncated and 
+ * decoding restarts at that byte, which recovers the frame that follows a corrupted one.  Frames with an implausible 
+ * length are abandoned as soon as the length is read.  Truncated and abandoned frames are reported to 
+ * FrameHandler.handleDiscardedFrame; frames with a bad checksum are passed to handleFrame as in normal mode, where the 
+ * parser reports the checksum error.  The number of bytes discarded and frames recovered is counted.
+ * <p/>
+ * Not thread safe.  A decoder must only be fed by one thread.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class FrameDecoder {
+
+	private final static Logger log = Logger.getLogger(FrameDecoder.class);
+
+	/**
+	 * Called by the decoder each time a complete frame has been received
+	 */
+	public interface FrameHandler {
+		void handleFrame(FrameDecoder decoder) throws InterruptedException;
+		
+		/**
+		 * Called in recovery mode when a frame is discarded before it is complete.  The bytes received so far are 
+		 * available from getRawBuffer() and getFrameBuffer() for the duration of the callback.
+		 * 
+		 * @param reason why the frame was discarded
+		 */
+		void handleDiscardedFrame(FrameDecoder decoder, String reason) throws InterruptedException;
+	}
+
+	private enum State {
+		START_BYTE,
+		LENGTH_MSB,
+		LENGTH_LSB,
+		FRAME_DATA,
+		CHECKSUM
+	}
+
+	/**
+	 * Default maximum frame length (frame data, not including length or checksum) accepted in recovery mode
+	 */
+	public final static int DEFAULT_MAX_FRAME_LENGTH = 512;
+	
+	private final FrameHandler handler;
+	
+	private boolean recovery;
+	private int maxFrameLength = DEFAULT_MAX_FRAME_LENGTH;
+	// true after a failure, until the next valid frame
+	private boolean resynchronizing;
+	private long bytesDiscarded;
+	private long framesRecovered;
+
+	private State state = State.START_BYTE;
+	// true if the previous byte was an escape byte
+	private boolean escape;
+
+	// stated length of frame data (does not include escape bytes)
+	private int length;
+	private int frameDataBytesRead;
+	private int checksum;
+
+	// raw (escaped) bytes of the current frame, minus the start byte
+	private ByteBuffer raw = ByteBuffer.allocate(128);
+	// un-escaped bytes of the current frame, from the length msb to the checksum
+	private ByteBuffer frame = ByteBuffer.allocate(128);
+
+	public FrameDecoder(FrameHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Feeds len bytes of buffer, starting at offset, to the decoder.  The handler is called
+	 * for each frame that is completed by these bytes.
+	 */
+	public void decode(byte[] buffer, int offset, int len) throws InterruptedException {
+		final int end = offset + len;
+
+		for (int i = offset; i < end; i++) {
+			this.decode(buffer[i] & 0xff);
+		}
+	}
+
+	/**
+	 * Feeds a single byte to the decoder
+	 */
+	public void decode(int b) throws InterruptedException {
+
+		if (state == State.START_BYTE) {
+			if (b == XBeePacket.SpecialByte.START_BYTE.getValue()) {
+				this.reset();
+				state = State.LENGTH_MSB;
+			} else {
+				log.warn("expected start byte but got this " + ByteUtils.toBase16(b) + ", discarding");
+				bytesDiscarded++;
+				resynchronizing = true;
+			}
+
+			return;
+		}
+		
+		if (recovery && b == XBeePacket.SpecialByte.START_BYTE.getValue()) {
+			// start bytes are always escaped within a frame so the current frame was truncated
+			this.discardFrame("Frame truncated by start byte after " + (raw.position() + 1) + " bytes");
+			this.reset();
+			state = State.LENGTH_MSB;
+			return;
+		}
+
+		// save raw bytes to transfer via network
+		raw = append(raw, b);
+
+		if (escape) {
+			b = 0x20 ^ b;
+			escape = false;
+		} else if (b == XBeePacket.SpecialByte.ESCAPE.getValue()) {
+			escape = true;
+			return;
+		}
+
+		frame = append(frame, b);
+		
+		switch (state) {
+		case LENGTH_MSB:
+			length = b << 8;
+			state = State.LENGTH_LSB;
+			break;
+		case LENGTH_LSB:
+			length+= b;
+			
+			if (recovery && (length == 0 || length > maxFrameLength)) {
+				this.discardFrame("Implausible frame length " + length);
+				state = State.START_BYTE;
+				break;
+			}
+			
+			state = length > 0 ? State.FRAME_DATA : State.CHECKSUM;
+			break;
+		case FRAME_DATA:
+			checksum+= b;
+
+			if (++frameDataBytesRead == length) {
+				state = State.CHECKSUM;
+			}
+
+			break;
+		case CHECKSUM:
+			checksum+= b;
+			state = State.START_BYTE;
+			
+			if (recovery) {
+				if (!this.isChecksumValid()) {
+					// still passed to the handler, whose parser reports the checksum error
+					this.countDiscarded("Checksum is incorrect, expected 0xff but got " + ByteUtils.toBase16(checksum & 0xff));
+				} else if (resynchronizing) {
+					resynchronizing = false;
+					framesRecovered++;
+				}
+			}
+			
+			raw.flip();
+			frame.flip();
+			
+			handler.handleFrame(this);
+			break;
+		default:
+			throw new IllegalStateException("Unexpected state " + state);
+		}
+	}
+
+	/**
+	 * Discards the frame in progress (including its start byte) and reports it to the handler
+	 */
+	private void discardFrame(String reason) throws InterruptedException {
+		this.countDiscarded(reason);
+		
+		raw.flip();
+		frame.flip();
+		
+		handler.handleDiscardedFrame(this, reason);
+	}
+	
+	private void countDiscarded(String reason) {
+		bytesDiscarded+= raw.position() + 1;
+		resynchronizing = true;
+		
+		log.warn(reason + ", discarding frame.  Total bytes discarded " + bytesDiscarded + ", frames recovered " + framesRecovered);
+	}
+	
+	/**
+	 * Returns true if the decoder is part way through a frame
+	 */
+	public boolean isInFrame() {
+		return state != State.START_BYTE;
+	}
+
+	/**
+	 * Returns the stated length of the last (or current) frame
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns true if the checksum of the last completed frame is correct
+	 */
+	public boolean isChecksumValid() {
+		return (checksum & 0xff) == 0xff;
+	}
+
+	/**
+	 * Returns the raw (escaped) bytes of the last completed frame, not including the start byte.
+	 * Only valid during the FrameHandler callback.
+	 */
+	public ByteBuffer getRawBuffer() {
+		return raw;
+	}
+	
+	/**
+	 * Returns the un-escaped bytes of the last completed frame: length bytes, frame data and checksum.
+	 * Only valid during the FrameHandler callback.
+	 */
+	public ByteBuffer getFrameBuffer() {
+		return frame;
+	}
+	
+	/**
+	 * Returns a copy of the raw (escaped) bytes of the last completed frame, not including the start byte.
+	 */
+	public int[] getRawPacketBytes() {
+		int[] packet = new int[raw.limit()];
+		
+		for (int i = 0; i < packet.length; i++) {
+			packet[i] = raw.get(i) & 0xff;
+		}
+		
+		return packet;
+	}
+
+	public boolean isRecovery() {
+		return recovery;
+	}
+
+	/**
+	 * Enables recovery mode.  Default is false
+	 */
+	public void setRecovery(boolean recovery) {
+		this.recovery = recovery;
+	}
+
+	public int getMaxFrameLength() {
+		return maxFrameLength;
+	}
+
+	/**
+	 * Sets the maximum frame length accepted in recovery mode.  Frames that state a longer length are discarded.
+	 */
+	public void setMaxFrameLength(int maxFrameLength) {
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	/**
+	 * Returns the number of bytes discarded while looking for a start byte, or as part of a discarded frame
+	 */
+	public long getBytesDiscarded() {
+		return bytesDiscarded;
+	}
+
+	/**
+	 * Returns the number of valid frames received directly after discarded bytes
+	 */
+	public long getFramesRecovered() {
+		return framesRecovered;
+	}
+
+	private static ByteBuffer append(ByteBuffer buffer, int b) {
+		if (!buffer.hasRemaining()) {
+			ByteBuffer grow = ByteBuffer.allocate(buffer.capacity() * 2);
+			buffer.flip();
+			grow.put(buffer);
+			buffer = grow;
+		}
+
+		buffer.put((byte) b);
+		return buffer;
+	}
+
+	private void reset() {
+		escape = false;
+		length = 0;
+		frameDataBytesRead = 0;
+		checksum = 0;
+		raw.clear();
+		frame.clear();
+	}
+}
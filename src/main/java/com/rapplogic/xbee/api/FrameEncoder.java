@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the frame data of a request (see XBeeRequest.writeFrameData).  When encoding a packet into a ByteBuffer, each 
+ * byte is added to the checksum and escaped as it is written, so the packet is built in a single pass without 
+ * intermediate arrays.  The encoder can also collect the un-escaped frame data into an int array (XBeeRequest.getFrameData).
+ * <p/>
+ * @author andrew
+ *
+ */
+public class FrameEncoder {
+	
+	private ByteBuffer buffer;
+	private final int[] frameData;
+	// set when the packet is started on the first write
+	private final XBeeRequest request;
+	private final byte[] reuse;
+	
+	private boolean started;
+	private int length;
+	private int frameDataBytes;
+	private int checksum;
+	
+	/**
+	 * Creates an encoder that writes an escaped packet into buffer, starting at its position
+	 */
+	FrameEncoder(ByteBuffer buffer) {
+		this(buffer, null, null);
+	}
+	
+	/**
+	 * Creates an encoder that writes the escaped packet of request into buffer, starting at its position.  The packet 
+	 * is started on the first write, with the length of XBeeRequest.writeFrameData(int[]) or getFrameDataLength.
+	 */
+	FrameEncoder(XBeeRequest request, ByteBuffer buffer) {
+		this(buffer, request, null);
+	}
+	
+	/**
+	 * Same as FrameEncoder(XBeeRequest, ByteBuffer) but writes into reuse, if it can hold the packet, otherwise into 
+	 * a new array (see getPacket)
+	 */
+	FrameEncoder(XBeeRequest request, byte[] reuse) {
+		this(null, request, reuse);
+	}
+	
+	private FrameEncoder(ByteBuffer buffer, XBeeRequest request, byte[] reuse) {
+		this.buffer = buffer;
+		this.frameData = null;
+		this.request = request;
+		this.reuse = reuse;
+	}
+	
+	/**
+	 * Creates an encoder that collects the frame data, as is, into frameData
+	 */
+	FrameEncoder(int[] frameData) {
+		this.buffer = null;
+		this.frameData = frameData;
+		this.request = null;
+		this.reuse = null;
+		this.started = true;
+		this.length = frameData.length;
+	}
+	
+	/**
+	 * Writes the start byte and the length of the frame data
+	 */
+	void startPacket(int length) {
+		if (buffer == null) {
+			int maxLength = getMaxPacketLength(length);
+			
+			// grow by at least double, so a reused array is not replaced for every larger packet
+			if (reuse != null && reuse.length >= maxLength) {
+				buffer = ByteBuffer.wrap(reuse);
+			} else {
+				buffer = ByteBuffer.wrap(new byte[reuse != null ? Math.max(maxLength, reuse.length * 2) : maxLength]);
+			}
+		}
+		
+		this.started = true;
+		this.length = length;
+		this.frameDataBytes = 0;
+		this.checksum = 0;
+		
+		if (length < 0 || length > 0xffff) {
+			throw new IllegalArgumentException("Frame data length is out of range: " + length);
+		}
+		
+		buffer.put((byte) XBeePacket.SpecialByte.START_BYTE.getValue());
+		this.putEscaped(length >> 8);
+		this.putEscaped(length & 0xff);
+	}
+	
+	/**
+	 * Writes the checksum, after verifying that the stated length of frame data was written
+	 */
+	void endPacket() {
+		if (!started) {
+			this.start();
+		}
+		
+		this.checkLength();
+		
+		// checksum is computed on the un-escaped frame data
+		this.putEscaped(0xff - (checksum & 0xff));
+	}
+	
+	/**
+	 * Returns the packet written by an encoder created with a reused array, from position 0 to the limit
+	 */
+	ByteBuffer getPacket() {
+		return ByteBuffer.wrap(buffer.array(), 0, buffer.position());
+	}
+	
+	private void start() {
+		if (request == null) {
+			throw new IllegalStateException("Packet has not been started");
+		}
+		
+		this.startPacket(request.getFrameDataLength());
+	}
+	
+	void checkLength() {
+		if (frameDataBytes != length) {
+			throw new IllegalStateException("Frame data length is " + length + " but " + frameDataBytes + " bytes were written");
+		}
+	}
+	
+	/**
+	 * Writes one byte of frame data
+	 */
+	public void write(int b) {
+		if (b > 255 || b < 0) {
+			throw new RuntimeException("Packet values must not be greater than one byte (255): " + b);
+		}
+		
+		if (!started) {
+			this.start();
+		}
+		
+		if (frameDataBytes == length) {
+			throw new IllegalStateException("Frame data exceeds length of " + length);
+		}
+		
+		if (frameData != null) {
+			frameData[frameDataBytes++] = b;
+			return;
+		}
+		
+		frameDataBytes++;
+		checksum+= b;
+		this.putEscaped(b);
+	}
+	
+	public void write(int[] bytes) {
+		for (int i = 0; i < bytes.length; i++) {
+			this.write(bytes[i]);
+		}
+	}
+	
+	/**
+	 * Writes all of the frame data.  If the packet has not been started, its length is the length of frameData, 
+	 * so a request that only implements getFrameData computes it once.
+	 */
+	void writeFrameData(int[] frameData) {
+		if (!started) {
+			this.startPacket(frameData.length);
+		}
+		
+		this.write(frameData);
+	}
+	
+	private void putEscaped(int b) {
+		putEscaped(buffer, b);
+	}
+	
+	/**
+	 * Writes b into buffer, escaped if it is a special byte
+	 */
+	static void putEscaped(ByteBuffer buffer, int b) {
+		if (XBeePacket.isSpecialByte(b)) {
+			buffer.put((byte) XBeePacket.SpecialByte.ESCAPE.getValue());
+			buffer.put((byte) (0x20 ^ b));
+		} else {
+			buffer.put((byte) b);
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes of frame data written
+	 */
+	public int getFrameDataBytes() {
+		return frameDataBytes;
+	}
+	
+	/**
+	 * Returns the maximum size of a packet with the frame data length, when every byte after the start byte is escaped
+	 */
+	public static int getMaxPacketLength(int frameDataLength) {
+		// start byte, plus length, frame data and checksum escaped
+		return 1 + (frameDataLength + 3) * 2;
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Allocates frame ids (1 to 255) that are not in flight.  An id stays allocated until it is released, which 
+ * PendingRequestTable does when the response is received or the request times out, so an id is never handed 
+ * out twice while a response may still arrive for it.
+ * <p/>
+ * Allocation is lock-free: ids are scanned round robin from a shared cursor and claimed with compare-and-set.  
+ * When all 255 ids are in flight, allocate blocks until one is released (back-pressure) or the timeout elapses.
+ * <p/>
+ * This class is thread-safe
+ * <p/>
+ * @author andrew
+ *
+ */
+public class FrameIdAllocator {
+
+	public final static int MAX_FRAME_ID = 0xff;
+	
+	// 1 if the id is allocated; index 0 is not used
+	private final AtomicIntegerArray allocated = new AtomicIntegerArray(MAX_FRAME_ID + 1);
+	private final AtomicInteger cursor = new AtomicInteger();
+	// one permit per free id; only contended when all ids are in flight
+	private final Semaphore free = new Semaphore(MAX_FRAME_ID);
+	
+	/**
+	 * Allocates a frame id, without waiting.  Returns 0 if all ids are in flight.
+	 */
+	public int tryAllocate() {
+		if (!free.tryAcquire()) {
+			return 0;
+		}
+		
+		return this.claim();
+	}
+	
+	/**
+	 * Allocates a frame id, waiting up to timeout for one to be released if all are in flight.  Returns 0 on timeout.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public int allocate(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!free.tryAcquire(timeout, unit)) {
+			return 0;
+		}
+		
+		return this.claim();
+	}
+	
+	/**
+	 * Claims a free id.  The caller holds a permit, so at least one id is free; the scan only repeats if other 
+	 * threads claim the free ids it finds first.
+	 */
+	private int claim() {
+		while (true) {
+			int frameId = (cursor.getAndIncrement() & Integer.MAX_VALUE) % MAX_FRAME_ID + 1;
+			
+			if (allocated.compareAndSet(frameId, 0, 1)) {
+				return frameId;
+			}
+		}
+	}
+	
+	/**
+	 * Allocates a specific frame id.  Returns false if it is in flight.
+	 * 
+	 * @param frameId
+	 */
+	public boolean reserve(int frameId) {
+		checkFrameId(frameId);
+		
+		if (!free.tryAcquire()) {
+			return false;
+		}
+		
+		if (allocated.compareAndSet(frameId, 0, 1)) {
+			return true;
+		}
+		
+		free.release();
+		return false;
+	}
+	
+	/**
+	 * Releases the frame id.  Does nothing if it is not allocated.
+	 * 
+	 * @param frameId
+	 */
+	public void release(int frameId) {
+		checkFrameId(frameId);
+		
+		if (allocated.compareAndSet(frameId, 1, 0)) {
+			free.release();
+		}
+	}
+	
+	public boolean isAllocated(int frameId) {
+		checkFrameId(frameId);
+		return allocated.get(frameId) == 1;
+	}
+	
+	/**
+	 * Returns the number of frame ids in flight
+	 */
+	public int getInFlight() {
+		return MAX_FRAME_ID - free.availablePermits();
+	}
+	
+	private static void checkFrameId(int frameId) {
+		if (frameId <= 0 || frameId > MAX_FRAME_ID) {
+			throw new IllegalArgumentException("Frame id must be between 1 and 255: " + frameId);
+		}
+	}
+}
@@ -39,6 +39,8 @@ public interface IXBee {
 
 	public void sendPacket(int[] packet)  throws IOException;
 
+	public void sendPacket(byte[] packet, int offset, int length) throws IOException;
+
 	public void sendAsynchronous(XBeeRequest xbeeRequest) throws XBeeException;
 
 	public XBeeResponse sendSynchronous(final XBeeRequest xbeeRequest, int timeout) throws XBeeTimeoutException, XBeeException;
@@ -29,6 +29,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.log4j.Logger;
 
+import com.rapplogic.xbee.SelectableXBeeConnection;
 import com.rapplogic.xbee.XBeeConnection;
 import com.rapplogic.xbee.util.ByteUtils;
 
@@ -36,18 +37,38 @@ import com.rapplogic.xbee.util.ByteUtils;
  * Reads data from the input stream and hands off to PacketParser for packet parsing.
  * Notifies XBee class when a new packet is parsed
  * <p/>
+ * In reactor mode (XBeeConfiguration.withReactor) with a SelectableXBeeConnection this class does not start a thread; 
+ * the XBeeReactor reads from the connection and feeds the bytes to the FrameDecoder of this class.  Other connections 
+ * are read by this thread as usual.  
+ * Listener dispatch and the response queue are the same in both modes.
+ * <p/>
  * @author andrew
  *
  */
-public class InputStreamThread implements Runnable {
+public class InputStreamThread implements Runnable, FrameDecoder.FrameHandler {
 	
 	private final static Logger log = Logger.getLogger(InputStreamThread.class);
 	
+	// size of the buffer used for bulk reads
+	private final static int READ_BUFFER_SIZE = 1024;
+	
 	private Thread thread;
 	private ExecutorService listenerPool;
 	private volatile boolean done = false;
 	private final XBeeConnection connection;
 	private XBeeConfiguration conf;
+	private final ResponseHandlerRegistry registry;
+	// null unless in reactor mode with a selectable connection
+	private final XBeeReactor reactor;
+	
+	// only used in bulk read, frame recovery or reactor mode
+	private FrameDecoder decoder;
+	private ByteBufferPacketParser frameParser;
+	// only used in pipeline mode
+	private DecodePipeline pipeline;
+	// only used in recycling mode
+	private ResponsePool responsePool;
+	private byte[] readBuffer;
 	
 	public XBeeConnection getXBeeConnection() {
 		return connection;
@@ -55,9 +76,19 @@ public class InputStreamThread implements Runnable {
 
 	private final BlockingQueue<XBeeResponse> responseQueue = new LinkedBlockingQueue<XBeeResponse>();
 	
+	// requests waiting for a response (sendSynchronous)
+	private final PendingRequestTable pendingRequestTable = new PendingRequestTable();
+	
 	// TODO use weak references
 	private final List<PacketListener> packetListenerList = new LinkedList<PacketListener>();
 	
+	/**
+	 * Returns the frame decoder, for its counters, or null if neither bulk read nor frame recovery is enabled
+	 */
+	public FrameDecoder getFrameDecoder() {
+		return decoder;
+	}
+	
 	public List<PacketListener> getPacketListenerList() {
 		return packetListenerList;
 	}
@@ -65,23 +96,79 @@ public class InputStreamThread implements Runnable {
 	public BlockingQueue<XBeeResponse> getResponseQueue() {
 		return responseQueue;
 	}
+	
+	public PendingRequestTable getPendingRequestTable() {
+		return pendingRequestTable;
+	}
 
 	public InputStreamThread(final XBeeConnection connection, XBeeConfiguration conf) {
+		this(connection, conf, new ResponseHandlerRegistry());
+	}
+	
+	public InputStreamThread(final XBeeConnection connection, XBeeConfiguration conf, ResponseHandlerRegistry registry) {
 		this.connection = connection;
 		this.conf = conf;
+		this.registry = registry;
+		// a connection that cannot be selected (e.g. serial) is read by this thread, which blocks until data arrives
+		this.reactor = connection instanceof SelectableXBeeConnection ? conf.getReactor() : null;
+		
+		if (reactor == null && connection instanceof SelectableXBeeConnection) {
+			throw new IllegalArgumentException("A SelectableXBeeConnection requires an XBeeReactor, see XBeeConfiguration.withReactor");
+		}
+		
+		if (conf.isResponseRecycling()) {
+			responsePool = new ResponsePool(registry);
+		}
+		
+		if (conf.getDecodeThreads() > 0) {
+			pipeline = new DecodePipeline(this, conf.getDecodeThreads(), registry, responsePool, conf);
+		}
+		
+		if (conf.isBulkRead() || conf.isFrameRecovery() || reactor != null || pipeline != null || responsePool != null) {
+			decoder = new FrameDecoder(pipeline != null ? pipeline : this);
+			decoder.setRecovery(conf.isFrameRecovery());
+			frameParser = new ByteBufferPacketParser(registry);
+			frameParser.setLazyParsing(conf.isLazyParsing());
+			frameParser.setTraceSink(conf.getTraceSink());
+			frameParser.setIoSampleSink(conf.getIoSampleSink());
+			frameParser.setIoSampleRate(conf.getIoSampleRate());
+			frameParser.setResponsePool(responsePool);
+			readBuffer = new byte[READ_BUFFER_SIZE];
+		}
 		
         // Create an executor to deliver incoming packets to listeners. We'll use a single
         // thread with an unbounded queue.
 		listenerPool = Executors.newSingleThreadExecutor();
 		
-		thread = new Thread(this);
-		thread.setName("InputStreamThread");
-		thread.start();
-		
-		log.debug("starting packet parser thread");
+		if (reactor != null) {
+			reactor.register(this);
+			log.debug("registered with reactor " + reactor);
+		} else {
+			thread = new Thread(this);
+			thread.setName("InputStreamThread");
+			thread.start();
+			
+			log.debug("starting packet parser thread");
+		}
+	}
+	
+	/**
+	 * Reactor mode: decodes bytes the reactor has read from a selectable connection
+	 */
+	void decode(byte[] buffer, int offset, int len) throws InterruptedException {
+		decoder.decode(buffer, offset, len);
 	}
 	
-	private void addResponse(final XBeeResponse response) throws InterruptedException {
+	/**
+	 * Completes the pending request with the frame id of the response, adds the response to the queue and dispatches to listeners.  Called by multiple threads in pipeline mode.
+	 * <p/>
+	 * In recycling mode the response arrives with one reference, which is released once all listeners are done.  
+	 * The response queue holds another reference, which is passed to the caller of getResponse.
+	 */
+	void addResponse(final XBeeResponse response) throws InterruptedException {
+		
+		// complete the request waiting for this frame id, if any
+		pendingRequestTable.complete(response);
 		
 		if (conf.getResponseQueueFilter() != null) {
 			if (conf.getResponseQueueFilter().accept(response)) {
@@ -96,19 +183,24 @@ public class InputStreamThread implements Runnable {
 				// must synchronize to avoid  java.util.ConcurrentModificationException at java.util.AbstractList$Itr.checkForComodification(Unknown Source)
 				// this occurs if packet listener add/remove is called while we are iterating
 				
-				synchronized (packetListenerList) {
-					for (PacketListener pl : packetListenerList) {
-						try {
-							if (pl != null) {
-								pl.processResponse(response);	
-							} else {
-								log.warn("PacketListener is null, size is " + packetListenerList.size());
+				try {
+					synchronized (packetListenerList) {
+						for (PacketListener pl : packetListenerList) {
+							try {
+								if (pl != null) {
+									pl.processResponse(response);	
+								} else {
+									log.warn("PacketListener is null, size is " + packetListenerList.size());
+								}
+							} catch (Throwable th) {
+								log.warn("Exception in packet listener", th);
 							}
-						} catch (Throwable th) {
-							log.warn("Exception in packet listener", th);
-						}
-					}			
-				}				
+						}			
+					}
+				} finally {
+					// recycling mode: listeners that keep the response must retain it
+					response.release();
+				}
 			}
 		});
 	}
@@ -122,10 +214,48 @@ public class InputStreamThread implements Runnable {
 		// trim the queue
 		while (responseQueue.size() >= conf.getMaxQueueSize()) {
 			log.info("Response queue has reached the maximum size of " + conf.getMaxQueueSize() + " packets.  Trimming a packet from head of queue to make room");
-			responseQueue.poll();
+			XBeeResponse trimmed = responseQueue.poll();
+			
+			if (trimmed != null) {
+				trimmed.release();
+			}
 		}
 		
-		responseQueue.put(response);
+		responseQueue.put(response.retain());
+	}
+	
+	/**
+	 * Called by the FrameDecoder, in bulk read mode, when a complete frame has been read
+	 */
+	public void handleFrame(FrameDecoder frameDecoder) throws InterruptedException {
+		// the parser verifies the checksum and returns an ErrorResponse if not valid
+		XBeeResponse response = frameParser.parsePacket(frameDecoder.getFrameBuffer(), frameDecoder.getRawBuffer());
+		
+		if (log.isInfoEnabled()) {
+			log.info("Received packet from XBee: " + response);	
+		}
+		
+		this.addResponse(response);
+	}
+	
+	/**
+	 * Called by the FrameDecoder, in recovery mode, when an incomplete frame is discarded
+	 */
+	public void handleDiscardedFrame(FrameDecoder frameDecoder, String reason) throws InterruptedException {
+		this.addResponse(newErrorResponse(frameDecoder, reason));
+	}
+	
+	/**
+	 * Returns an ErrorResponse for a frame discarded by the decoder, with a copy of the bytes received
+	 */
+	static ErrorResponse newErrorResponse(FrameDecoder frameDecoder, String reason) {
+		ErrorResponse response = new ErrorResponse();
+		
+		response.setErrorMsg(reason);
+		response.setException(new XBeeParseException(reason));
+		response.setPacketBytes(DecodePipeline.copy(frameDecoder.getRawBuffer()), DecodePipeline.copy(frameDecoder.getFrameBuffer()));
+		
+		return response;
 	}
 	
 	public void run() {
@@ -138,13 +268,35 @@ public class InputStreamThread implements Runnable {
 		try {
 			while (!done) {
 				try {
-					if (connection.getInputStream().available() > 0) {
+					int available = conf.getWaitStrategy().awaitData(connection);
+					
+					if (available > 0 && decoder != null) {
+						// read everything that is available and let the decoder pick up where it left off
+						int read = connection.getInputStream().read(readBuffer, 0, Math.min(available, readBuffer.length));
+						
+						if (read > 0) {
+							decoder.decode(readBuffer, 0, read);
+						} else if (read < 0) {
+							// possible with a blocking read
+							throw new IOException("End of input stream");
+						}
+					} else if (available > 0) {
 						log.debug("About to read from input stream");
 						val = connection.getInputStream().read();
-						log.debug("Read " + ByteUtils.formatByte(val) + " from input stream");
 						
-						if (val == XBeePacket.SpecialByte.START_BYTE.getValue()) {
-							packetStream = new PacketParser(connection.getInputStream());
+						if (log.isDebugEnabled()) {
+							log.debug("Read " + ByteUtils.formatByte(val) + " from input stream");
+						}
+						
+						if (val == -1) {
+							// possible with a blocking read
+							throw new IOException("End of input stream");
+						} else if (val == XBeePacket.SpecialByte.START_BYTE.getValue()) {
+							packetStream = new PacketParser(connection.getInputStream(), registry);
+							packetStream.setLazyParsing(conf.isLazyParsing());
+							packetStream.setTraceSink(conf.getTraceSink());
+							packetStream.setIoSampleSink(conf.getIoSampleSink());
+							packetStream.setIoSampleRate(conf.getIoSampleRate());
 							response = packetStream.parsePacket();
 							
 							if (log.isInfoEnabled()) {
@@ -157,20 +309,7 @@ public class InputStreamThread implements Runnable {
 						} else {
 							log.warn("expected start byte but got this " + ByteUtils.toBase16(val) + ", discarding");
 						}
-					} else {
-						log.debug("No data available.. waiting for new data event");
-						
-						// we will wait here for RXTX to notify us of new data
-						synchronized (this.connection) {
-							// There's a chance that we got notified after the first in.available check
-							if (connection.getInputStream().available() > 0) {
-								continue;
-							}
-							
-							// wait until new data arrives
-							this.connection.wait();
-						}	
-					}				
+					}
 				} catch (Exception e) {
 					if (e instanceof InterruptedException) throw ((InterruptedException)e);
 					
@@ -189,32 +328,47 @@ public class InputStreamThread implements Runnable {
 		} catch (Throwable t) {
 			log.error("Error in input stream thread.. exiting", t);
 		} finally {
-			try {
-				if (connection != null) {
-					connection.close();
-				}
-				
-				if (listenerPool != null) {
-					try {
-						listenerPool.shutdownNow();
-					} catch (Throwable t) {
-						log.warn("Failed to shutdown listner thread pool", t);
-					}
-				}				
-			} catch (Throwable t) {
-				log.error("Error in input stream thread finally", t);
-			}
+			this.shutdown();
 		}
 		
 		log.info("InputStreamThread is exiting");
 	}
+	
+	/**
+	 * Closes the connection and stops listener dispatch.  Called when the thread exits, or by the reactor
+	 * when it stops serving this connection.
+	 */
+	void shutdown() {
+		try {
+			if (connection != null) {
+				connection.close();
+			}
+			
+			if (pipeline != null) {
+				pipeline.shutdown();
+			}
+			
+			if (listenerPool != null) {
+				try {
+					listenerPool.shutdownNow();
+				} catch (Throwable t) {
+					log.warn("Failed to shutdown listner thread pool", t);
+				}
+			}				
+		} catch (Throwable t) {
+			log.error("Error in input stream thread finally", t);
+		}
+	}
 
 	public void setDone(boolean done) {
 		this.done = done;
 	}
 	
 	public void interrupt() {
-		if (thread != null) {
+		if (reactor != null) {
+			// stops reading from the connection and shuts down
+			reactor.unregister(this);
+		} else if (thread != null) {
 			try {
 				thread.interrupt();	
 			} catch (Exception e) {
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+
+import com.rapplogic.xbee.util.IIntInputStream;
+
+/**
+ * For internal use only.  Parser operations the response classes of this library use in addition to IPacketParser.
+ * Implemented by PacketParser and ByteBufferPacketParser; responses get it from XBeeResponse.getInternalParser, 
+ * which adapts other IPacketParser implementations.  This interface may change in any release.
+ * <p/>
+ * @author andrew
+ *
+ */
+public interface InternalPacketParser extends IPacketParser, IIntInputStream {
+	/**
+	 * Reads byte index of a multi-byte field.  Use this instead of building the context string, 
+	 * so no work is done unless the field is traced.
+	 */
+	int read(String context, int index) throws IOException;
+	/**
+	 * Same as readRemainingBytes() but reads into reuse if it is not null and its length equals the number of remaining bytes
+	 */
+	int[] readRemainingBytes(int[] reuse) throws IOException;
+	/**
+	 * Reads and discards all remaining bytes except for checksum
+	 */
+	void skipRemainingBytes() throws IOException;
+	/**
+	 * Same as parseAddress16() but parses into reuse, if not null
+	 */
+	XBeeAddress16 parseAddress16(XBeeAddress16 reuse) throws IOException;
+	/**
+	 * Same as parseAddress64() but parses into reuse, if not null
+	 */
+	XBeeAddress64 parseAddress64(XBeeAddress64 reuse) throws IOException;
+	/**
+	 * Returns true if responses that support it should defer parsing of the packet body until it is accessed
+	 */
+	boolean isLazyParsing();
+	/**
+	 * Returns the sink IO sample responses add their samples to, or null
+	 */
+	IoSampleSink getIoSampleSink();
+	/**
+	 * Returns the IO sample rate (IR) in milliseconds, used to derive the time of each sample of a multi-sample packet.  0 if not known
+	 */
+	int getIoSampleRate();
+}
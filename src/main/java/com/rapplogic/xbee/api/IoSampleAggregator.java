@@ -0,0 +1,540 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains statistics for each pin of each node, updated incrementally as IO samples are parsed 
+ * (register with XBeeConfiguration.withIoSampleSink).  Consumers read a Snapshot of a node instead of receiving every sample.
+ * <p/>
+ * For each analog channel: count, min, max, mean and number of value changes within the window, plus the last value and an 
+ * exponentially weighted moving average (EWMA) over all samples.  For each digital pin: count, number of samples 
+ * high and number of transitions within the window, plus the last state.
+ * <p/>
+ * The window is divided into slices.  With one slice the window is tumbling: it is aligned to multiples of the window 
+ * length and starts empty.  With more than one slice the window slides one slice at a time, covering the last slices 
+ * of samples.  Windows are based on the sample timestamps.
+ * <p/>
+ * The statistics are kept in primitive arrays, one set per node.  Each node has its own lock, held by an update for 
+ * one sample and by a snapshot while it copies the node, so samples from different nodes are aggregated concurrently.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class IoSampleAggregator implements IoSampleSink {
+
+	public final static int ANALOG_CHANNELS = IoSampleBatch.ANALOG_CHANNELS;
+	public final static int DIGITAL_PINS = 16;
+	
+	public final static double DEFAULT_EWMA_ALPHA = 0.1;
+	
+	private final long windowMillis;
+	private final int slices;
+	private final long sliceMillis;
+	private final double ewmaAlpha;
+	
+	private final ConcurrentHashMap<Long, Node> nodes = new ConcurrentHashMap<Long, Node>();
+	
+	/**
+	 * Creates an aggregator with a tumbling window
+	 */
+	public IoSampleAggregator(long windowMillis) {
+		this(windowMillis, 1);
+	}
+	
+	/**
+	 * Creates an aggregator with a window that slides by windowMillis / slices.  Use 1 slice for a tumbling window
+	 */
+	public IoSampleAggregator(long windowMillis, int slices) {
+		this(windowMillis, slices, DEFAULT_EWMA_ALPHA);
+	}
+	
+	/**
+	 * @param windowMillis
+	 * @param slices
+	 * @param ewmaAlpha weight of each new value in the EWMA, between 0 (exclusive) and 1
+	 */
+	public IoSampleAggregator(long windowMillis, int slices, double ewmaAlpha) {
+		if (slices < 1) {
+			throw new IllegalArgumentException("slices must be > 0");
+		}
+		
+		if (windowMillis < slices || windowMillis % slices != 0) {
+			throw new IllegalArgumentException("windowMillis must be a positive multiple of slices");
+		}
+		
+		if (!(ewmaAlpha > 0 && ewmaAlpha <= 1)) {
+			throw new IllegalArgumentException("ewmaAlpha must be > 0 and <= 1");
+		}
+		
+		this.windowMillis = windowMillis;
+		this.slices = slices;
+		this.sliceMillis = windowMillis / slices;
+		this.ewmaAlpha = ewmaAlpha;
+	}
+	
+	public void add(long timestamp, long source, int digitalEnabledMask, int digitalOnMask, int analogEnabledMask, int[] analogValues, int offset) {
+		Node node = nodes.get(source);
+		
+		if (node == null) {
+			node = new Node(source);
+			Node existing = nodes.putIfAbsent(source, node);
+			
+			if (existing != null) {
+				node = existing;
+			}
+		}
+		
+		node.update(timestamp, digitalEnabledMask, digitalOnMask, analogEnabledMask, analogValues, offset);
+	}
+	
+	/**
+	 * Returns the statistics of the node for the window that contains the current time, or null if no samples 
+	 * have been received from the node
+	 */
+	public Snapshot snapshot(long source) {
+		return this.snapshot(source, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Returns the statistics of the node for the window that contains time, or null if no samples have been 
+	 * received from the node.  With a tumbling window, the window preceding the current window is also available.
+	 */
+	public Snapshot snapshot(long source, long time) {
+		Node node = nodes.get(source);
+		
+		if (node == null) {
+			return null;
+		}
+		
+		return node.snapshot(time);
+	}
+	
+	/**
+	 * Returns a snapshot of each node for the window that contains the current time
+	 */
+	public List<Snapshot> snapshotAll() {
+		long time = System.currentTimeMillis();
+		List<Snapshot> snapshots = new ArrayList<Snapshot>(nodes.size());
+		
+		for (Node node : nodes.values()) {
+			snapshots.add(node.snapshot(time));
+		}
+		
+		return snapshots;
+	}
+	
+	/**
+	 * Discards the statistics of the node
+	 */
+	public void remove(long source) {
+		nodes.remove(source);
+	}
+	
+	/**
+	 * Discards the statistics of all nodes
+	 */
+	public void clear() {
+		nodes.clear();
+	}
+	
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+
+	public int getSlices() {
+		return slices;
+	}
+
+	/**
+	 * The statistics of one node.  The slices form a ring with one more slice than the window, so the previous window 
+	 * can still be read after a tumbling window ends.  Guarded by the node's monitor.
+	 */
+	private final class Node {
+		
+		private final long source;
+		
+		private final int ring = slices + 1;
+		
+		// start time of each slice, Long.MIN_VALUE if unused
+		private final long[] sliceStart = new long[ring];
+		private final long[] sliceSamples = new long[ring];
+		
+		// [slice * ANALOG_CHANNELS + channel]
+		private final long[] analogCount = new long[ring * ANALOG_CHANNELS];
+		private final long[] analogSum = new long[ring * ANALOG_CHANNELS];
+		private final int[] analogMin = new int[ring * ANALOG_CHANNELS];
+		private final int[] analogMax = new int[ring * ANALOG_CHANNELS];
+		private final long[] analogChanges = new long[ring * ANALOG_CHANNELS];
+		
+		// [slice * DIGITAL_PINS + pin]
+		private final long[] digitalCount = new long[ring * DIGITAL_PINS];
+		private final long[] digitalHigh = new long[ring * DIGITAL_PINS];
+		private final long[] digitalChanges = new long[ring * DIGITAL_PINS];
+		
+		// not windowed
+		private long samples;
+		private long lastTimestamp;
+		private int lastAnalogMask;
+		private final int[] lastAnalog = new int[ANALOG_CHANNELS];
+		private final double[] ewma = new double[ANALOG_CHANNELS];
+		private int lastDigitalMask;
+		private int lastDigitalOn;
+		
+		Node(long source) {
+			this.source = source;
+			
+			for (int i = 0; i < ring; i++) {
+				sliceStart[i] = Long.MIN_VALUE;
+			}
+		}
+		
+		synchronized void update(long timestamp, int digitalEnabledMask, int digitalOnMask, int analogEnabledMask, int[] analogValues, int offset) {
+			long start = timestamp - mod(timestamp, sliceMillis);
+			int slice = (int) mod(start / sliceMillis, ring);
+			
+			// false if the sample is older than the slices kept
+			boolean windowed = true;
+			
+			if (sliceStart[slice] != start) {
+				if (sliceStart[slice] > start) {
+					windowed = false;
+				} else {
+					this.clearSlice(slice, start);
+				}
+			}
+			
+			if (windowed) {
+				sliceSamples[slice]++;
+			}
+			
+			for (int channel = 0; channel < ANALOG_CHANNELS; channel++) {
+				int bit = 1 << channel;
+				
+				if ((analogEnabledMask & bit) == 0) {
+					continue;
+				}
+				
+				int value = analogValues[offset + channel];
+				boolean changed = (lastAnalogMask & bit) != 0 && lastAnalog[channel] != value;
+				
+				if (windowed) {
+					int i = slice * ANALOG_CHANNELS + channel;
+					
+					if (analogCount[i] == 0 || value < analogMin[i]) {
+						analogMin[i] = value;
+					}
+					
+					if (analogCount[i] == 0 || value > analogMax[i]) {
+						analogMax[i] = value;
+					}
+					
+					analogCount[i]++;
+					analogSum[i]+= value;
+					
+					if (changed) {
+						analogChanges[i]++;
+					}
+				}
+				
+				if ((lastAnalogMask & bit) == 0) {
+					ewma[channel] = value;
+				} else {
+					ewma[channel]+= ewmaAlpha * (value - ewma[channel]);
+				}
+				
+				lastAnalog[channel] = value;
+			}
+			
+			lastAnalogMask|= analogEnabledMask;
+			
+			if (windowed) {
+				for (int pin = 0; pin < DIGITAL_PINS; pin++) {
+					int bit = 1 << pin;
+					
+					if ((digitalEnabledMask & bit) == 0) {
+						continue;
+					}
+					
+					int i = slice * DIGITAL_PINS + pin;
+					
+					digitalCount[i]++;
+					
+					if ((digitalOnMask & bit) != 0) {
+						digitalHigh[i]++;
+					}
+					
+					if ((lastDigitalMask & bit) != 0 && ((lastDigitalOn ^ digitalOnMask) & bit) != 0) {
+						digitalChanges[i]++;
+					}
+				}
+			}
+			
+			lastDigitalOn = (lastDigitalOn & ~digitalEnabledMask) | (digitalOnMask & digitalEnabledMask);
+			lastDigitalMask|= digitalEnabledMask;
+			
+			samples++;
+			lastTimestamp = Math.max(lastTimestamp, timestamp);
+		}
+		
+		private void clearSlice(int slice, long start) {
+			sliceStart[slice] = start;
+			sliceSamples[slice] = 0;
+			
+			for (int i = slice * ANALOG_CHANNELS; i < (slice + 1) * ANALOG_CHANNELS; i++) {
+				analogCount[i] = 0;
+				analogSum[i] = 0;
+				analogMin[i] = 0;
+				analogMax[i] = 0;
+				analogChanges[i] = 0;
+			}
+			
+			for (int i = slice * DIGITAL_PINS; i < (slice + 1) * DIGITAL_PINS; i++) {
+				digitalCount[i] = 0;
+				digitalHigh[i] = 0;
+				digitalChanges[i] = 0;
+			}
+		}
+		
+		Snapshot snapshot(long time) {
+			long windowEnd = time - mod(time, sliceMillis) + sliceMillis;
+			long windowStart = windowEnd - windowMillis;
+			
+			Snapshot snapshot = new Snapshot(source, windowStart, windowEnd);
+			
+			synchronized (this) {
+				for (int slice = 0; slice < ring; slice++) {
+					if (sliceStart[slice] >= windowStart && sliceStart[slice] < windowEnd) {
+						snapshot.merge(this, slice);
+					}
+				}
+				
+				snapshot.samples = samples;
+				snapshot.lastTimestamp = lastTimestamp;
+				snapshot.lastAnalogMask = lastAnalogMask;
+				snapshot.lastDigitalMask = lastDigitalMask;
+				snapshot.lastDigitalOn = lastDigitalOn;
+				System.arraycopy(lastAnalog, 0, snapshot.lastAnalog, 0, ANALOG_CHANNELS);
+				System.arraycopy(ewma, 0, snapshot.ewma, 0, ANALOG_CHANNELS);
+			}
+			
+			return snapshot;
+		}
+	}
+	
+	// non-negative remainder, for timestamps before the epoch
+	private static long mod(long value, long divisor) {
+		long mod = value % divisor;
+		return mod < 0 ? mod + divisor : mod;
+	}
+	
+	/**
+	 * The statistics of a node for a window.  Values of channels/pins that have no samples in the window are 0 (-1 for min/max).
+	 */
+	public static class Snapshot {
+		
+		private final long source;
+		private final long windowStart;
+		private final long windowEnd;
+		
+		private long windowSamples;
+		private final long[] analogCount = new long[ANALOG_CHANNELS];
+		private final long[] analogSum = new long[ANALOG_CHANNELS];
+		private final int[] analogMin = new int[ANALOG_CHANNELS];
+		private final int[] analogMax = new int[ANALOG_CHANNELS];
+		private final long[] analogChanges = new long[ANALOG_CHANNELS];
+		private final long[] digitalCount = new long[DIGITAL_PINS];
+		private final long[] digitalHigh = new long[DIGITAL_PINS];
+		private final long[] digitalChanges = new long[DIGITAL_PINS];
+		
+		private long samples;
+		private long lastTimestamp;
+		private int lastAnalogMask;
+		private final int[] lastAnalog = new int[ANALOG_CHANNELS];
+		private final double[] ewma = new double[ANALOG_CHANNELS];
+		private int lastDigitalMask;
+		private int lastDigitalOn;
+		
+		Snapshot(long source, long windowStart, long windowEnd) {
+			this.source = source;
+			this.windowStart = windowStart;
+			this.windowEnd = windowEnd;
+			
+			for (int i = 0; i < ANALOG_CHANNELS; i++) {
+				analogMin[i] = -1;
+				analogMax[i] = -1;
+			}
+		}
+		
+		private void merge(Node node, int slice) {
+			windowSamples+= node.sliceSamples[slice];
+			
+			for (int channel = 0; channel < ANALOG_CHANNELS; channel++) {
+				int i = slice * ANALOG_CHANNELS + channel;
+				
+				if (node.analogCount[i] == 0) {
+					continue;
+				}
+				
+				if (analogCount[channel] == 0 || node.analogMin[i] < analogMin[channel]) {
+					analogMin[channel] = node.analogMin[i];
+				}
+				
+				if (analogCount[channel] == 0 || node.analogMax[i] > analogMax[channel]) {
+					analogMax[channel] = node.analogMax[i];
+				}
+				
+				analogCount[channel]+= node.analogCount[i];
+				analogSum[channel]+= node.analogSum[i];
+				analogChanges[channel]+= node.analogChanges[i];
+			}
+			
+			for (int pin = 0; pin < DIGITAL_PINS; pin++) {
+				int i = slice * DIGITAL_PINS + pin;
+				
+				digitalCount[pin]+= node.digitalCount[i];
+				digitalHigh[pin]+= node.digitalHigh[i];
+				digitalChanges[pin]+= node.digitalChanges[i];
+			}
+		}
+		
+		/**
+		 * Returns the address of the node (see IoSampleBatch.toLong)
+		 */
+		public long getSource() {
+			return source;
+		}
+
+		public long getWindowStart() {
+			return windowStart;
+		}
+
+		public long getWindowEnd() {
+			return windowEnd;
+		}
+		
+		/**
+		 * Returns the number of samples in the window
+		 */
+		public long getWindowSamples() {
+			return windowSamples;
+		}
+		
+		/**
+		 * Returns the number of samples received from the node
+		 */
+		public long getSamples() {
+			return samples;
+		}
+		
+		public long getLastTimestamp() {
+			return lastTimestamp;
+		}
+
+		public long getAnalogCount(int channel) {
+			return analogCount[channel];
+		}
+		
+		public int getAnalogMin(int channel) {
+			return analogMin[channel];
+		}
+		
+		public int getAnalogMax(int channel) {
+			return analogMax[channel];
+		}
+		
+		/**
+		 * Returns the mean of the channel in the window, or NaN if the window has no samples of the channel
+		 */
+		public double getAnalogMean(int channel) {
+			return analogCount[channel] == 0 ? Double.NaN : (double) analogSum[channel] / analogCount[channel];
+		}
+		
+		/**
+		 * Returns the number of samples in the window that differ from the previous sample
+		 */
+		public long getAnalogChanges(int channel) {
+			return analogChanges[channel];
+		}
+		
+		/**
+		 * Returns the EWMA of the channel over all samples, or NaN if no sample of the channel has been received
+		 */
+		public double getAnalogEwma(int channel) {
+			return (lastAnalogMask & (1 << channel)) == 0 ? Double.NaN : ewma[channel];
+		}
+		
+		/**
+		 * Returns the last value of the channel, or -1 if no sample of the channel has been received
+		 */
+		public int getLastAnalog(int channel) {
+			return (lastAnalogMask & (1 << channel)) == 0 ? -1 : lastAnalog[channel];
+		}
+		
+		public long getDigitalCount(int pin) {
+			return digitalCount[pin];
+		}
+		
+		/**
+		 * Returns the number of samples in the window with the pin high
+		 */
+		public long getDigitalHigh(int pin) {
+			return digitalHigh[pin];
+		}
+		
+		/**
+		 * Returns the number of transitions of the pin in the window
+		 */
+		public long getDigitalChanges(int pin) {
+			return digitalChanges[pin];
+		}
+		
+		/**
+		 * Returns the last state of the pin.  False if no sample of the pin has been received
+		 */
+		public boolean isLastDigitalOn(int pin) {
+			return (lastDigitalOn & lastDigitalMask & (1 << pin)) != 0;
+		}
+		
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			
+			builder.append("source=0x" + Long.toHexString(source) + ",window=" + windowStart + "-" + windowEnd + ",samples=" + windowSamples);
+			
+			for (int channel = 0; channel < ANALOG_CHANNELS; channel++) {
+				if (analogCount[channel] > 0) {
+					builder.append(",analog[" + channel + "]=(min=" + analogMin[channel] + ",max=" + analogMax[channel] + 
+							",mean=" + this.getAnalogMean(channel) + ",ewma=" + ewma[channel] + ",changes=" + analogChanges[channel] + ")");
+				}
+			}
+			
+			for (int pin = 0; pin < DIGITAL_PINS; pin++) {
+				if (digitalCount[pin] > 0) {
+					builder.append(",digital[" + pin + "]=(high=" + digitalHigh[pin] + "/" + digitalCount[pin] + ",changes=" + digitalChanges[pin] + ")");
+				}
+			}
+			
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.Arrays;
+
+/**
+ * Stores IO samples column-wise: one primitive array per field (timestamp, source, digital masks, 
+ * analog channels) instead of one object per sample.  Analog channel columns are only allocated once
+ * a sample with that channel enabled is added.
+ * <p/>
+ * Digital masks are indexed by pin: bit n is pin Dn (Series 1 D0-D8, ZNet D0-D7 and D10-D12).  
+ * Analog channels are indexed by pin (A0-A5), the supply voltage (ZNet) is channel SUPPLY_VOLTAGE.
+ * The source is the address of the radio packed into a long (see toLong).
+ * <p/>
+ * Rows are added by the parser (see XBeeConfiguration.withIoSampleSink) and are read by draining 
+ * the batch, which hands the rows over to a new batch in constant time: 
+ * <p/>
+ * <pre>
+ * IoSampleBatch rows = batch.drain();
+ * 
+ * for (int i = 0; i < rows.size(); i++) {
+ * 	rows.getTimestamp(i) ... rows.getAnalog(i, 0)
+ * }
+ * </pre>
+ * add, drain and clear are thread-safe; the row accessors are not synchronized and are meant for drained batches.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class IoSampleBatch implements IoSampleSink {
+
+	/**
+	 * Number of analog channels: A0-A5 and the supply voltage
+	 */
+	public final static int ANALOG_CHANNELS = 8;
+	/**
+	 * Channel of the supply voltage, which is bit 7 of the ZNet analog channel mask
+	 */
+	public final static int SUPPLY_VOLTAGE = 7;
+	
+	public final static int DEFAULT_CAPACITY = 64;
+	
+	private final int initialCapacity;
+	
+	private int size;
+	
+	private long[] timestamps;
+	private long[] sources;
+	private int[] digitalEnabled;
+	private int[] digitalOn;
+	private int[] analogEnabled;
+	// [channel][row], null until a row has the channel enabled
+	private int[][] analog = new int[ANALOG_CHANNELS][];
+	
+	public IoSampleBatch() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public IoSampleBatch(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0");
+		}
+		
+		this.initialCapacity = capacity;
+		this.allocate(capacity);
+	}
+	
+	private void allocate(int capacity) {
+		timestamps = new long[capacity];
+		sources = new long[capacity];
+		digitalEnabled = new int[capacity];
+		digitalOn = new int[capacity];
+		analogEnabled = new int[capacity];
+		analog = new int[ANALOG_CHANNELS][];
+	}
+	
+	/**
+	 * Adds a sample.  analogValues is indexed by channel and only the channels in analogEnabledMask are read.
+	 * 
+	 * @param timestamp
+	 * @param source
+	 * @param digitalEnabledMask pins configured for digital IO
+	 * @param digitalOnMask pins that are high
+	 * @param analogEnabledMask channels in this sample
+	 * @param analogValues 
+	 */
+	public void add(long timestamp, long source, int digitalEnabledMask, int digitalOnMask, int analogEnabledMask, int[] analogValues) {
+		this.add(timestamp, source, digitalEnabledMask, digitalOnMask, analogEnabledMask, analogValues, 0);
+	}
+	
+	/**
+	 * Same as add, but the value of channel n is analogValues[offset + n]
+	 */
+	public synchronized void add(long timestamp, long source, int digitalEnabledMask, int digitalOnMask, int analogEnabledMask, int[] analogValues, int offset) {
+		if (size == timestamps.length) {
+			this.grow();
+		}
+		
+		timestamps[size] = timestamp;
+		sources[size] = source;
+		digitalEnabled[size] = digitalEnabledMask;
+		digitalOn[size] = digitalOnMask & digitalEnabledMask;
+		analogEnabled[size] = analogEnabledMask;
+		
+		for (int channel = 0; channel < ANALOG_CHANNELS; channel++) {
+			if ((analogEnabledMask & (1 << channel)) != 0) {
+				if (analog[channel] == null) {
+					analog[channel] = new int[timestamps.length];
+				}
+				
+				analog[channel][size] = analogValues[offset + channel];
+			}
+		}
+		
+		size++;
+	}
+	
+	private void grow() {
+		int capacity = timestamps.length * 2;
+		
+		timestamps = Arrays.copyOf(timestamps, capacity);
+		sources = Arrays.copyOf(sources, capacity);
+		digitalEnabled = Arrays.copyOf(digitalEnabled, capacity);
+		digitalOn = Arrays.copyOf(digitalOn, capacity);
+		analogEnabled = Arrays.copyOf(analogEnabled, capacity);
+		
+		for (int channel = 0; channel < ANALOG_CHANNELS; channel++) {
+			if (analog[channel] != null) {
+				analog[channel] = Arrays.copyOf(analog[channel], capacity);
+			}
+		}
+	}
+	
+	/**
+	 * Moves all rows to a new batch and empties this batch.  The columns are handed over, not copied.
+	 */
+	public synchronized IoSampleBatch drain() {
+		IoSampleBatch rows = new IoSampleBatch(initialCapacity, this);
+		
+		size = 0;
+		this.allocate(initialCapacity);
+		
+		return rows;
+	}
+	
+	// takes over the columns of other
+	private IoSampleBatch(int initialCapacity, IoSampleBatch other) {
+		this.initialCapacity = initialCapacity;
+		this.size = other.size;
+		this.timestamps = other.timestamps;
+		this.sources = other.sources;
+		this.digitalEnabled = other.digitalEnabled;
+		this.digitalOn = other.digitalOn;
+		this.analogEnabled = other.analogEnabled;
+		this.analog = other.analog;
+	}
+	
+	/**
+	 * Removes all rows, keeping the columns
+	 */
+	public synchronized void clear() {
+		size = 0;
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+	
+	public long getTimestamp(int row) {
+		return timestamps[this.checkRow(row)];
+	}
+
+	public long getSource(int row) {
+		return sources[this.checkRow(row)];
+	}
+	
+	public int getDigitalEnabledMask(int row) {
+		return digitalEnabled[this.checkRow(row)];
+	}
+
+	public int getDigitalOnMask(int row) {
+		return digitalOn[this.checkRow(row)];
+	}
+	
+	public int getAnalogEnabledMask(int row) {
+		return analogEnabled[this.checkRow(row)];
+	}
+	
+	public boolean isDigitalEnabled(int row, int pin) {
+		return (this.getDigitalEnabledMask(row) & (1 << pin)) != 0;
+	}
+	
+	/**
+	 * Returns true if the pin is enabled and high
+	 */
+	public boolean isDigitalOn(int row, int pin) {
+		return (this.getDigitalOnMask(row) & (1 << pin)) != 0;
+	}
+	
+	public boolean isAnalogEnabled(int row, int channel) {
+		return (this.getAnalogEnabledMask(row) & (1 << channel)) != 0;
+	}
+	
+	/**
+	 * Returns the 10-bit value of the analog channel, or -1 if the channel is not in the sample
+	 */
+	public int getAnalog(int row, int channel) {
+		if (!this.isAnalogEnabled(row, channel)) {
+			return -1;
+		}
+		
+		return analog[channel][row];
+	}
+	
+	/**
+	 * Returns the timestamp column.  Only the first size() entries are valid
+	 */
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+	
+	/**
+	 * Returns the source column.  Only the first size() entries are valid
+	 */
+	public long[] getSources() {
+		return sources;
+	}
+	
+	/**
+	 * Returns the digital on mask column.  Only the first size() entries are valid
+	 */
+	public int[] getDigitalOnMasks() {
+		return digitalOn;
+	}
+	
+	/**
+	 * Returns the column of the analog channel, or null if no row has the channel enabled.  
+	 * Only the first size() entries are valid, and only for rows that have the channel enabled.
+	 */
+	public int[] getAnalogColumn(int channel) {
+		return analog[channel];
+	}
+	
+	private int checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+		}
+		
+		return row;
+	}
+	
+	/**
+	 * Same as XBeeAddress.toLong
+	 */
+	public static long toLong(XBeeAddress address) {
+		return address.toLong();
+	}
+	
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+/**
+ * Receives IO samples as primitives from RxResponseIoSample and ZNetRxIoSampleResponse as they are parsed.
+ * See XBeeConfiguration.withIoSampleSink
+ * <p/>
+ * Digital masks are indexed by pin: bit n is pin Dn.  Analog values are indexed by channel: analogValues[offset + n] is 
+ * channel n (pin An, or IoSampleBatch.SUPPLY_VOLTAGE), and only the channels in analogEnabledMask are valid.  The source 
+ * is the address of the radio packed into a long (see IoSampleBatch.toLong).  The arrays must not be retained.
+ * <p/>
+ * Called from the thread that parses the packet, so implementations must be thread-safe if the decode pipeline is used.
+ * <p/>
+ * @author andrew
+ *
+ */
+public interface IoSampleSink {
+	void add(long timestamp, long source, int digitalEnabledMask, int digitalOnMask, int analogEnabledMask, int[] analogValues, int offset);
+}
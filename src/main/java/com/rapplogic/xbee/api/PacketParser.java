@@ -21,20 +21,9 @@ package com.rapplogic.xbee.api;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
 
-import com.rapplogic.xbee.api.wpan.RxResponse16;
-import com.rapplogic.xbee.api.wpan.RxResponse64;
-import com.rapplogic.xbee.api.wpan.RxResponseIoSample;
-import com.rapplogic.xbee.api.wpan.TxStatusResponse;
-import com.rapplogic.xbee.api.zigbee.ZNetExplicitRxResponse;
-import com.rapplogic.xbee.api.zigbee.ZNetNodeIdentificationResponse;
-import com.rapplogic.xbee.api.zigbee.ZNetRxIoSampleResponse;
-import com.rapplogic.xbee.api.zigbee.ZNetRxResponse;
-import com.rapplogic.xbee.api.zigbee.ZNetTxStatusResponse;
 import com.rapplogic.xbee.util.ByteUtils;
 import com.rapplogic.xbee.util.IIntInputStream;
 import com.rapplogic.xbee.util.InputStreamWrapper;
@@ -51,7 +40,7 @@ import com.rapplogic.xbee.util.IntArrayOutputStream;
  * @author Andrew Rapp
  *
  */
-public class PacketParser implements IIntInputStream, IPacketParser {
+public class PacketParser implements InternalPacketParser {
 
 	private final static Logger log = Logger.getLogger(PacketParser.class);
 
@@ -70,56 +59,34 @@ public class PacketParser implements IIntInputStream, IPacketParser {
 	private ApiId apiId;
 	private int intApiId;
 	
-	private static Map<Integer, Class<? extends XBeeResponse>> handlerMap = new HashMap<Integer, Class<? extends XBeeResponse>>();
+	private final ResponseHandlerRegistry registry;
+	private boolean lazyParsing;
+	private TraceSink traceSink = TraceSink.NONE;
+	private IoSampleSink ioSampleSink;
+	private int ioSampleRate;
 	
 	// TODO reuse this object for all packets
 	
 	// experiment to preserve original byte array for transfer over network (Starts with length)
 	private IntArrayOutputStream rawBytes = new IntArrayOutputStream();
 	
-	static {
-		// TODO put all response handlers in specific packet and load all.  implement static handlesApi method
-		handlerMap.put(ApiId.AT_RESPONSE.getValue(), AtCommandResponse.class);
-		handlerMap.put(ApiId.MODEM_STATUS_RESPONSE.getValue(), ModemStatusResponse.class);
-		handlerMap.put(ApiId.REMOTE_AT_RESPONSE.getValue(), RemoteAtResponse.class);
-		handlerMap.put(ApiId.RX_16_IO_RESPONSE.getValue(), RxResponseIoSample.class);
-		handlerMap.put(ApiId.RX_64_IO_RESPONSE.getValue(), RxResponseIoSample.class);
-		handlerMap.put(ApiId.RX_16_RESPONSE.getValue(), RxResponse16.class);
-		handlerMap.put(ApiId.RX_64_RESPONSE.getValue(), RxResponse64.class);
-		handlerMap.put(ApiId.TX_STATUS_RESPONSE.getValue(), TxStatusResponse.class);
-		handlerMap.put(ApiId.ZNET_EXPLICIT_RX_RESPONSE.getValue(), ZNetExplicitRxResponse.class);
-		handlerMap.put(ApiId.ZNET_IO_NODE_IDENTIFIER_RESPONSE.getValue(), ZNetNodeIdentificationResponse.class);
-		handlerMap.put(ApiId.ZNET_IO_SAMPLE_RESPONSE.getValue(), ZNetRxIoSampleResponse.class);
-		handlerMap.put(ApiId.ZNET_RX_RESPONSE.getValue(), ZNetRxResponse.class);
-		handlerMap.put(ApiId.ZNET_TX_STATUS_RESPONSE.getValue(), ZNetTxStatusResponse.class);
-	}
-	
-	static void registerResponseHandler(int apiId, Class<? extends XBeeResponse> clazz) {
-		if (handlerMap.get(apiId) == null) {
-			log.info("Registering response handler " + clazz.getCanonicalName() + " for apiId: " + apiId);
-		} else {
-			log.warn("Overriding existing implementation: " + handlerMap.get(apiId).getCanonicalName() + ", with " + clazz.getCanonicalName() + " for apiId: " + apiId);
-		}
-		
-		handlerMap.put(apiId, clazz);
-	}
-	
-	static void unRegisterResponseHandler(int apiId) {
-		if (handlerMap.get(apiId) != null) {
-			log.info("Unregistering response handler " + handlerMap.get(apiId).getCanonicalName() + " for apiId: " + apiId);
-			handlerMap.remove(apiId);
-		} else {
-			throw new IllegalArgumentException("No response handler for: " + apiId);
-		}
+	public PacketParser(InputStream in) {
+		this(in, ResponseHandlerRegistry.getDefault());
 	}
 	
-	public PacketParser(InputStream in) {
+	public PacketParser(InputStream in, ResponseHandlerRegistry registry) {
 		this.in = new InputStreamWrapper(in);
+		this.registry = registry;
 	}
 	
 	// for parsing a packet from a byte array
 	public PacketParser(IIntInputStream in) {
+		this(in, ResponseHandlerRegistry.getDefault());
+	}
+	
+	public PacketParser(IIntInputStream in, ResponseHandlerRegistry registry) {
 		this.in = in;
+		this.registry = registry;
 	}
 	
 	/**
@@ -140,7 +107,9 @@ public class PacketParser implements IIntInputStream, IPacketParser {
 			// length of api structure, starting here (not including start byte or length bytes, or checksum)
 			this.length = new XBeePacketLength(msbLength, lsbLength);
 
-			log.debug("packet length is " + String.format("[0x%03X]", length.getLength()));
+			if (log.isDebugEnabled()) {
+				log.debug("packet length is " + String.format("[0x%03X]", length.getLength()));
+			}
 			
 			// total packet length = stated length + 1 start byte + 1 checksum byte + 2 length bytes
 			
@@ -152,20 +121,17 @@ public class PacketParser implements IIntInputStream, IPacketParser {
 				this.apiId = ApiId.UNKNOWN;	
 			}
 			
-			log.info("Handling ApiId: " + apiId);
+			if (log.isDebugEnabled()) {
+				log.debug("Handling ApiId: " + apiId);
+			}
 			
 			// TODO parse I/O data page 12. 82 API Identifier Byte for 64 bit address A/D data (83 is for 16bit A/D data)
 			
-			for (Integer handlerApiId : handlerMap.keySet()) {
-				if (intApiId == handlerApiId) {
-					log.debug("Found response handler for apiId [" + ByteUtils.toBase16(intApiId) + "]: " + handlerMap.get(handlerApiId).getCanonicalName());		
-					response = (XBeeResponse) handlerMap.get(handlerApiId).newInstance();
-					response.parse(this);
-					break;
-				}
-			}
+			response = registry.newResponse(intApiId);
 			
-			if (response == null) {
+			if (response != null) {
+				response.parse(this);
+			} else {
 				log.info("Did not find a response handler for ApiId [" + ByteUtils.toBase16(intApiId) + "].  Returning GenericResponse");
 				response = new GenericResponse();
 				response.parse(this);
@@ -205,7 +171,13 @@ public class PacketParser implements IIntInputStream, IPacketParser {
 	 */
 	public int read(String context) throws IOException {
 		int b = this.read();
-		log.debug("Read " + context + " byte, val is " + ByteUtils.formatByte(b));
+		traceSink.trace(context, -1, bytesRead - 1, b);
+		return b;
+	}
+	
+	public int read(String context, int index) throws IOException {
+		int b = this.read();
+		traceSink.trace(context, index, bytesRead - 1, b);
 		return b;
 	}
 	
@@ -241,17 +213,9 @@ public class PacketParser implements IIntInputStream, IPacketParser {
 		}
 		
 		if (XBeePacket.isSpecialByte(b)) {
-			log.debug("Read special byte that needs to be unescaped"); 
-			
 			if (b == XBeePacket.SpecialByte.ESCAPE.getValue()) {
-				log.debug("found escape byte");
 				// read next byte
-				b = this.readFromStream();
-				
-				log.debug("next byte is " + ByteUtils.formatByte(b));
-				b = 0x20 ^ b;
-				log.debug("unescaped (xor) byte is " + ByteUtils.formatByte(b));
-					
+				b = 0x20 ^ this.readFromStream();
 				escapeBytes++;
 			} else {
 				// TODO some responses such as AT Response for node discover do not escape the bytes?? shouldn't occur if AP mode is 2?
@@ -270,15 +234,11 @@ public class PacketParser implements IIntInputStream, IPacketParser {
 			// when computing checksum, do not include start byte, length, or checksum; when verifying, include checksum
 			checksum.addByte(b);
 			
-			log.debug("Read byte " + ByteUtils.formatByte(b) + " at position " + bytesRead + ", packet length is " + this.length.get16BitValue() + ", #escapeBytes is " + escapeBytes + ", remaining bytes is " + this.getRemainingBytes());
-			
 			// escape bytes are not included in the stated packet length
 			if (this.getFrameDataBytesRead() >= (length.get16BitValue() + 1)) {
 				// this is checksum and final byte of packet
 				done = true;
 				
-				log.debug("Checksum byte is " + b);
-				
 				if (!checksum.verify()) {
 					throw new XBeeParseException("Checksum is incorrect.  Expected 0xff, but got " + checksum.getChecksum());
 				}
@@ -294,31 +254,55 @@ public class PacketParser implements IIntInputStream, IPacketParser {
 	 * @throws IOException
 	 */
 	public int[] readRemainingBytes() throws IOException {
+		return this.readRemainingBytes(null);
+	}
+	
+	public int[] readRemainingBytes(int[] reuse) throws IOException {
 		
 		// minus one since we don't read the checksum
-		int[] value = new int[this.getRemainingBytes() - 1];
+		int remaining = this.getRemainingBytes() - 1;
+		int[] value = reuse != null && reuse.length == remaining ? reuse : new int[remaining];
 		
-		log.debug("There are " + value.length + " remaining bytes");
+		if (log.isDebugEnabled()) {
+			log.debug("There are " + value.length + " remaining bytes");
+		}
 		
 		for (int i = 0; i < value.length; i++) {
-			value[i] = this.read("Remaining bytes " + i);
+			value[i] = this.read("Remaining bytes", i);
 		}
 		
 		return value;
 	}
 	
+	public void skipRemainingBytes() throws IOException {
+		// minus one since we don't read the checksum
+		int remaining = this.getRemainingBytes() - 1;
+		
+		for (int i = 0; i < remaining; i++) {
+			this.read();
+		}
+	}
+	
 	public XBeeAddress64 parseAddress64() throws IOException {
-		XBeeAddress64 addr = new XBeeAddress64();
+		return this.parseAddress64(null);
+	}
+	
+	public XBeeAddress64 parseAddress64(XBeeAddress64 reuse) throws IOException {
+		XBeeAddress64 addr = reuse != null ? reuse : new XBeeAddress64();
 		
 		for (int i = 0; i < 8; i++) {
-			addr.getAddress()[i] = this.read("64-bit Address byte " + i);
+			addr.getAddress()[i] = this.read("64-bit Address byte", i);
 		}	
 		
 		return addr;
 	}
 	
 	public XBeeAddress16 parseAddress16() throws IOException {
-		XBeeAddress16 addr16 = new XBeeAddress16();
+		return this.parseAddress16(null);
+	}
+	
+	public XBeeAddress16 parseAddress16(XBeeAddress16 reuse) throws IOException {
+		XBeeAddress16 addr16 = reuse != null ? reuse : new XBeeAddress16();
 		
 		addr16.setMsb(this.read("Address 16 MSB"));
 		addr16.setLsb(this.read("Address 16 LSB"));
@@ -382,4 +366,57 @@ public class PacketParser implements IIntInputStream, IPacketParser {
 	public int getIntApiId() {
 		return this.intApiId;
 	}
+
+	public TraceSink getTraceSink() {
+		return traceSink;
+	}
+
+	/**
+	 * Sets the sink that receives an event for each field byte read.  Default is TraceSink.NONE
+	 * 
+	 * @param traceSink
+	 */
+	public void setTraceSink(TraceSink traceSink) {
+		this.traceSink = traceSink;
+	}
+
+	public IoSampleSink getIoSampleSink() {
+		return ioSampleSink;
+	}
+
+	/**
+	 * Sets the sink that IO sample responses add their samples to.  Default is null
+	 * 
+	 * @param ioSampleSink
+	 */
+	public void setIoSampleSink(IoSampleSink ioSampleSink) {
+		this.ioSampleSink = ioSampleSink;
+	}
+
+	public int getIoSampleRate() {
+		return ioSampleRate;
+	}
+
+	/**
+	 * Sets the IO sample rate (IR) of the radios, in milliseconds.  Default is 0 (unknown)
+	 * 
+	 * @param ioSampleRate
+	 */
+	public void setIoSampleRate(int ioSampleRate) {
+		this.ioSampleRate = ioSampleRate;
+	}
+
+	public boolean isLazyParsing() {
+		return lazyParsing;
+	}
+
+	/**
+	 * When true, responses that support lazy parsing only parse the header fields; the body 
+	 * is parsed when first accessed.  The checksum is always verified.
+	 * 
+	 * @param lazyParsing
+	 */
+	public void setLazyParsing(boolean lazyParsing) {
+		this.lazyParsing = lazyParsing;
+	}
 }
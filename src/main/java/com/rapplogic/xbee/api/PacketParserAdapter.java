@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+
+import com.rapplogic.xbee.util.IIntInputStream;
+
+/**
+ * Adapts an IPacketParser that is not an InternalPacketParser: no lazy parsing, no IO sample sink, 
+ * and the reuse arguments are ignored.
+ * <p/>
+ * @author andrew
+ *
+ */
+class PacketParserAdapter implements InternalPacketParser {
+
+	private final IPacketParser parser;
+	
+	PacketParserAdapter(IPacketParser parser) {
+		this.parser = parser;
+	}
+	
+	public int read() throws IOException {
+		if (parser instanceof IIntInputStream) {
+			return ((IIntInputStream) parser).read();
+		}
+		
+		return parser.read("");
+	}
+
+	public int read(String context) throws IOException {
+		return parser.read(context);
+	}
+
+	public int read(String context, int index) throws IOException {
+		return parser.read(context);
+	}
+
+	public int[] readRemainingBytes() throws IOException {
+		return parser.readRemainingBytes();
+	}
+
+	public int[] readRemainingBytes(int[] reuse) throws IOException {
+		return parser.readRemainingBytes();
+	}
+
+	public void skipRemainingBytes() throws IOException {
+		parser.readRemainingBytes();
+	}
+
+	public int getFrameDataBytesRead() {
+		return parser.getFrameDataBytesRead();
+	}
+
+	public int getRemainingBytes() {
+		return parser.getRemainingBytes();
+	}
+
+	public int getBytesRead() {
+		return parser.getBytesRead();
+	}
+
+	public XBeePacketLength getLength() {
+		return parser.getLength();
+	}
+
+	public ApiId getApiId() {
+		return parser.getApiId();
+	}
+
+	public int getIntApiId() {
+		return parser.getIntApiId();
+	}
+
+	public XBeeAddress16 parseAddress16() throws IOException {
+		return parser.parseAddress16();
+	}
+
+	public XBeeAddress64 parseAddress64() throws IOException {
+		return parser.parseAddress64();
+	}
+
+	public XBeeAddress16 parseAddress16(XBeeAddress16 reuse) throws IOException {
+		return parser.parseAddress16();
+	}
+
+	public XBeeAddress64 parseAddress64(XBeeAddress64 reuse) throws IOException {
+		return parser.parseAddress64();
+	}
+
+	public boolean isLazyParsing() {
+		return false;
+	}
+
+	public IoSampleSink getIoSampleSink() {
+		return null;
+	}
+
+	public int getIoSampleRate() {
+		return 0;
+	}
+}
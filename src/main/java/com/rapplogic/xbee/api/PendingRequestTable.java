@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Requests waiting for a response, indexed by frame id.  The receive path completes the request registered for the 
+ * frame id of each XBeeFrameIdResponse with a single array access, so waiting requests do not need a packet listener 
+ * and responses are not matched against each waiting request in turn.
+ * <p/>
+ * At most one request may be registered per frame id.  A request is removed from the table when it is completed.  
+ * The frame ids of registered requests are allocated from a FrameIdAllocator and released when the request is 
+ * completed or removed, so register(PendingRequest, long) never picks an id that is waiting for a response.
+ * <p/>
+ * This class is thread-safe and lock-free
+ * <p/>
+ * @author andrew
+ *
+ */
+public class PendingRequestTable {
+
+	/**
+	 * A request waiting for its response
+	 */
+	public interface PendingRequest {
+		/**
+		 * Called by the receive thread with the response.  Must not block.  In recycling mode the response must be 
+		 * retained if it is kept after this method returns.
+		 */
+		void complete(XBeeFrameIdResponse response);
+	}
+	
+	private final AtomicReferenceArray<PendingRequest> slots = new AtomicReferenceArray<PendingRequest>(256);
+	private final FrameIdAllocator allocator = new FrameIdAllocator();
+	// called when a frame id is released (RequestQueue)
+	private volatile Runnable releaseListener;
+	// threads waiting for a frame id to be released; incremented while holding frameIdLock
+	private final Object frameIdLock = new Object();
+	private volatile int frameIdWaiters;
+	
+	/**
+	 * Registers the request for the frame id.  Returns false if the frame id is in flight.
+	 * 
+	 * @param frameId 1 to 255
+	 * @param request
+	 */
+	public boolean register(int frameId, PendingRequest request) {
+		if (!allocator.reserve(frameId)) {
+			return false;
+		}
+		
+		slots.set(frameId, request);
+		return true;
+	}
+	
+	/**
+	 * Registers the request for the frame id.  If the frame id is in flight, waits up to timeout milliseconds for it to 
+	 * be released.  Returns false on timeout.
+	 * 
+	 * @param frameId 1 to 255
+	 * @param request
+	 * @param timeout
+	 * @throws InterruptedException
+	 */
+	public boolean register(int frameId, PendingRequest request, long timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		
+		while (!allocator.reserve(frameId)) {
+			long remaining = deadline - System.nanoTime();
+			
+			if (remaining <= 0) {
+				return false;
+			}
+			
+			synchronized (frameIdLock) {
+				frameIdWaiters++;
+				
+				try {
+					// checked after frameIdWaiters is incremented, so a release in between is not missed
+					if (allocator.isAllocated(frameId)) {
+						TimeUnit.NANOSECONDS.timedWait(frameIdLock, remaining);
+					}
+				} finally {
+					frameIdWaiters--;
+				}
+			}
+		}
+		
+		slots.set(frameId, request);
+		return true;
+	}
+	
+	/**
+	 * Allocates a frame id and registers the request for it.  If all frame ids are in flight, waits up to timeout 
+	 * milliseconds for one to be released.  Returns the frame id, or 0 on timeout.
+	 * 
+	 * @param request
+	 * @param timeout
+	 * @throws InterruptedException
+	 */
+	public int register(PendingRequest request, long timeout) throws InterruptedException {
+		int frameId = allocator.allocate(timeout, TimeUnit.MILLISECONDS);
+		
+		if (frameId != 0) {
+			slots.set(frameId, request);
+		}
+		
+		return frameId;
+	}
+	
+	/**
+	 * Allocates a frame id and registers the request for it, without waiting.  Returns the frame id, or 0 if all frame 
+	 * ids are in flight.
+	 * 
+	 * @param request
+	 */
+	public int tryRegister(PendingRequest request) {
+		int frameId = allocator.tryAllocate();
+		
+		if (frameId != 0) {
+			slots.set(frameId, request);
+		}
+		
+		return frameId;
+	}
+	
+	/**
+	 * Removes the request if it is still registered for the frame id (e.g. after a timeout).  Returns false if it 
+	 * was completed or is not registered.
+	 */
+	public boolean remove(int frameId, PendingRequest request) {
+		if (frameId <= 0 || frameId > 0xff) {
+			// e.g. a request that was never sent
+			return false;
+		}
+		
+		if (slots.compareAndSet(frameId, request, null)) {
+			this.release(frameId);
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Removes all registered requests, releasing their frame ids, and returns them (XBee.close)
+	 */
+	List<PendingRequest> removeAll() {
+		List<PendingRequest> removed = new ArrayList<PendingRequest>();
+		
+		for (int frameId = 1; frameId <= 0xff; frameId++) {
+			PendingRequest request = slots.getAndSet(frameId, null);
+			
+			if (request != null) {
+				this.release(frameId);
+				removed.add(request);
+			}
+		}
+		
+		return removed;
+	}
+	
+	private void release(int frameId) {
+		allocator.release(frameId);
+		
+		// register(int, PendingRequest, long) waits for a specific frame id
+		if (frameIdWaiters > 0) {
+			synchronized (frameIdLock) {
+				frameIdLock.notifyAll();
+			}
+		}
+		
+		Runnable listener = releaseListener;
+		
+		if (listener != null) {
+			listener.run();
+		}
+	}
+	
+	void setReleaseListener(Runnable releaseListener) {
+		this.releaseListener = releaseListener;
+	}
+	
+	/**
+	 * Returns true if the frame id is in flight
+	 */
+	public boolean isPending(int frameId) {
+		return allocator.isAllocated(frameId);
+	}
+	
+	/**
+	 * Returns the number of frame ids in flight
+	 */
+	public int getInFlight() {
+		return allocator.getInFlight();
+	}
+	
+	/**
+	 * Called by the receive path with each response.  If the response has a frame id with a registered request, 
+	 * the request is removed and completed.  Returns true if a request was completed.
+	 */
+	boolean complete(XBeeResponse response) {
+		if (!(response instanceof XBeeFrameIdResponse)) {
+			return false;
+		}
+		
+		XBeeFrameIdResponse frameIdResponse = (XBeeFrameIdResponse) response;
+		int frameId = frameIdResponse.getFrameId();
+		
+		if (frameId <= 0 || frameId > 0xff) {
+			return false;
+		}
+		
+		PendingRequest request = slots.getAndSet(frameId, null);
+		
+		if (request == null) {
+			return false;
+		}
+		
+		this.release(frameId);
+		request.complete(frameIdResponse);
+		return true;
+	}
+}
@@ -19,7 +19,6 @@
 
 package com.rapplogic.xbee.api;
 
-import com.rapplogic.xbee.util.IntArrayOutputStream;
 
 /**
  * Supported by both series 1 (10C8 firmware and later) and series 2.
@@ -142,8 +141,14 @@ public class RemoteAtRequest extends AtCommand {
 	}
 	
 	public int[] getFrameData() {		
-		IntArrayOutputStream out = new IntArrayOutputStream();
-		
+		return this.toFrameData();
+	}
+	
+	public int getFrameDataLength() {
+		return 15 + (this.getValue() != null ? this.getValue().length : 0);
+	}
+	
+	protected void writeFrameData(FrameEncoder out) {
 		// api id
 		out.write(this.getApiId().getValue());
 		// frame id (arbitrary byte that will be sent back with ack)
@@ -169,15 +174,13 @@ public class RemoteAtRequest extends AtCommand {
 		}
 		 
 		// command name ascii [1]
-		out.write((int) this.getCommand().substring(0, 1).toCharArray()[0]);
+		out.write(this.getCommand().charAt(0));
 		// command name ascii [2]
-		out.write((int) this.getCommand().substring(1, 2).toCharArray()[0]);
+		out.write(this.getCommand().charAt(1));
 	
 		if (this.getValue() != null) {
 			out.write(this.getValue());
 		}
-
-		return out.getIntArray();
 	}
 	
 	public ApiId getApiId() {
@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Maps any number of requests onto the 255 frame ids of the radio.  Each request gets a virtual request id 
+ * (ResponseFuture.getRequestId), which is unique for the life of the XBee, and a frame id only when it is sent.  
+ * Requests are sent in order as long as frame ids are free; the rest wait in the queue and are sent as responses 
+ * (or timeouts) release frame ids.  Callers only see the virtual id and the future, so frame ids never collide.
+ * <p/>
+ * Requests are sent by the queue's dispatch thread, which is the only thread that takes requests from the queue, so 
+ * requests are sent in the order they were queued and the receive thread is never blocked by a send.  The timeout of 
+ * a request includes the time spent in the queue.  A request that is cancelled or times out is removed from the 
+ * queue straight away.
+ * <p/>
+ * With a congestion controller, requests to a destination whose window is full are skipped, so they do not hold up 
+ * requests to other destinations; requests to the same destination are still sent in order.  Skipped requests are 
+ * sent when the controller releases a frame.
+ * <p/>
+ * Used by XBee.enqueue.  This class is thread-safe
+ * <p/>
+ * @author andrew
+ *
+ */
+public class RequestQueue {
+
+	private final static Logger log = Logger.getLogger(RequestQueue.class);
+	
+	private final XBee xbee;
+	private final PendingRequestTable table;
+	private final TimingWheel timingWheel;
+	// null if congestion control is not used
+	private final CongestionController controller;
+	// guarded by itself, in the order queued
+	private final Set<ResponseFuture> queue = new LinkedHashSet<ResponseFuture>();
+	// guarded by queue
+	private boolean shutdown;
+	// size of the queue, read without the lock by scheduleDrain, which may be called while the controller is locked
+	private volatile int queued;
+	private final AtomicLong nextRequestId = new AtomicLong(1);
+	
+	private final ExecutorService dispatcher;
+	// true while a drain is scheduled on the dispatcher
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+	// true while a retry is scheduled on the timing wheel
+	private final AtomicBoolean retryScheduled = new AtomicBoolean();
+	
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			drainScheduled.set(false);
+			drain();
+		}
+	};
+	
+	// send more requests whenever a frame id or congestion window is released, by any request
+	private final Runnable releaseListener = new Runnable() {
+		public void run() {
+			scheduleDrain();
+		}
+	};
+	
+	RequestQueue(XBee xbee, PendingRequestTable table, TimingWheel timingWheel, CongestionController controller) {
+		this.xbee = xbee;
+		this.table = table;
+		this.timingWheel = timingWheel;
+		this.controller = controller;
+		
+		this.dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "RequestQueue");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		table.setReleaseListener(releaseListener);
+		
+		if (controller != null) {
+			controller.addReleaseListener(releaseListener);
+		}
+	}
+	
+	/**
+	 * Queues the request and returns its future.  The frame id of the request is set when it is sent.
+	 * 
+	 * @param request
+	 * @param timeout milliseconds, from now
+	 */
+	public ResponseFuture enqueue(XBeeRequest request, int timeout) {
+		final ResponseFuture future = new ResponseFuture(request, table, nextRequestId.getAndIncrement());
+		
+		// a request that is cancelled or times out leaves the queue straight away
+		future.addCallback(new ResponseFuture.Callback() {
+			public void onResponse(XBeeFrameIdResponse response) {
+				
+			}
+			
+			public void onFailure(Throwable cause) {
+				remove(future);
+			}
+		});
+		
+		try {
+			future.setTimeoutTask(timingWheel.schedule(new Runnable() {
+				public void run() {
+					future.timeout();
+				}
+			}, timeout, TimeUnit.MILLISECONDS));
+		} catch (IllegalStateException e) {
+			// the wheel was stopped by close
+			throw new XBeeNotConnectedException();
+		}
+		
+		synchronized (queue) {
+			if (shutdown) {
+				// closed after the timeout was scheduled; cancels it
+				future.fail(new XBeeNotConnectedException());
+				throw new XBeeNotConnectedException();
+			}
+			
+			// a future that is done here has already been removed, by its callback
+			if (!future.isDone()) {
+				queue.add(future);
+				queued = queue.size();
+			}
+		}
+		
+		this.scheduleDrain();
+		
+		return future;
+	}
+	
+	private void remove(ResponseFuture future) {
+		synchronized (queue) {
+			if (queue.remove(future)) {
+				queued = queue.size();
+			}
+		}
+	}
+	
+	private void scheduleDrain() {
+		if (queued == 0) {
+			return;
+		}
+		
+		if (drainScheduled.compareAndSet(false, true)) {
+			try {
+				dispatcher.execute(drain);
+			} catch (RejectedExecutionException e) {
+				// shut down; the queued requests have been failed
+				drainScheduled.set(false);
+			}
+		}
+	}
+	
+	/**
+	 * Sends queued requests until the queue is empty, all frame ids are in flight or the remaining requests are to 
+	 * congested destinations.  Only called by the dispatch thread.  A frame id or congestion window released after 
+	 * a failed attempt schedules another drain.
+	 */
+	private void drain() {
+		// destinations skipped in this drain; their later requests are skipped too, to keep them in order
+		Set<XBeeAddress> congested = new HashSet<XBeeAddress>();
+		
+		while (true) {
+			ResponseFuture future = this.next(congested);
+			
+			if (future == null) {
+				if (!congested.isEmpty()) {
+					this.scheduleRetry();
+				}
+				
+				return;
+			}
+			
+			// registers and sets the frame id only if the future is not done (cancelled or timed out meanwhile)
+			int frameId = future.register();
+			
+			if (frameId == 0) {
+				// all frame ids are in flight; the request stays in the queue
+				return;
+			}
+			
+			this.remove(future);
+			
+			if (frameId > 0) {
+				this.send(future);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the first queued request whose destination is not congested, or null.  The controller is called 
+	 * without holding the queue lock, since the controller calls scheduleDrain while locked.
+	 */
+	private ResponseFuture next(Set<XBeeAddress> congested) {
+		while (true) {
+			ResponseFuture future = null;
+			XBeeAddress destination = null;
+			
+			synchronized (queue) {
+				for (Iterator<ResponseFuture> i = queue.iterator(); i.hasNext();) {
+					ResponseFuture candidate = i.next();
+					XBeeAddress address = controller != null ? CongestionController.getDestination(candidate.getRequest()) : null;
+					
+					if (address == null || !congested.contains(address)) {
+						future = candidate;
+						destination = address;
+						break;
+					}
+				}
+			}
+			
+			if (future == null || destination == null || controller.isOpen(destination)) {
+				return future;
+			}
+			
+			if (log.isDebugEnabled()) {
+				log.debug("Congestion window of " + destination + " is full; skipping its requests");
+			}
+			
+			congested.add(destination);
+		}
+	}
+	
+	/**
+	 * Drains again after the status timeout, in case a congested destination is waiting for a frame whose TX status 
+	 * was lost, which the controller releases only when asked
+	 */
+	private void scheduleRetry() {
+		if (retryScheduled.compareAndSet(false, true)) {
+			try {
+				timingWheel.schedule(new Runnable() {
+					public void run() {
+						retryScheduled.set(false);
+						scheduleDrain();
+					}
+				}, controller.getStatusTimeout(), TimeUnit.MILLISECONDS);
+			} catch (IllegalStateException e) {
+				// the wheel was stopped by close
+				retryScheduled.set(false);
+			}
+		}
+	}
+	
+	private void send(ResponseFuture future) {
+		try {
+			// does not wait for the congestion window unless another thread took it since next checked it
+			xbee.sendRequest(future.getRequest());
+		} catch (IOException e) {
+			log.warn("Failed to send request " + future.getRequestId(), e);
+			future.fail(e);
+		} catch (RuntimeException e) {
+			future.fail(e);
+		}
+	}
+	
+	/**
+	 * Returns the number of requests waiting to be sent
+	 */
+	public int getQueueSize() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+	
+	/**
+	 * Stops the dispatch thread and fails the requests in the queue with XBeeNotConnectedException
+	 */
+	void shutdown() {
+		table.setReleaseListener(null);
+		
+		if (controller != null) {
+			controller.removeReleaseListener(releaseListener);
+		}
+		
+		dispatcher.shutdownNow();
+		
+		try {
+			// a drain in progress may still register a request; wait for it, so close can fail the request
+			dispatcher.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		List<ResponseFuture> failed;
+		
+		synchronized (queue) {
+			shutdown = true;
+			failed = new ArrayList<ResponseFuture>(queue);
+			queue.clear();
+			queued = 0;
+		}
+		
+		for (ResponseFuture future : failed) {
+			future.fail(new XBeeNotConnectedException());
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.nio.ByteBuffer;
+
+import com.rapplogic.xbee.api.wpan.TxRequestBase;
+import com.rapplogic.xbee.api.zigbee.ZNetTxRequest;
+
+/**
+ * A pre-encoded request for sending many payloads with the same header (API ID, addresses, radius, options, 
+ * AT command).  The template is built once from a prototype ZNetTxRequest, TxRequest16, TxRequest64, AtCommand or 
+ * RemoteAtRequest; the header is escaped and its checksum summed up front.  Encoding a packet then writes the 
+ * pre-escaped header, the frame id and the payload, so the work is proportional to the payload and no request object 
+ * or frame data array is created.
+ * <p/>
+ * The payload of the prototype (or the value of an AT command) is not part of the template.  Payloads longer than 
+ * the maximum payload size of the template are rejected with IllegalArgumentException before anything is encoded.
+ * <p/>
+ * Send with XBee.sendTemplate.  Templates are immutable and may be shared by threads.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class RequestTemplate {
+
+	private final ApiId apiId;
+	// null for AT commands
+	private final XBeeAddress destination;
+	// frame data bytes before the payload
+	private final int headerLength;
+	// API ID, escaped
+	private final byte[] head;
+	// header after the frame id, escaped
+	private final byte[] tail;
+	// sum of the header bytes, except the frame id
+	private final int partialChecksum;
+	private final int maxPayloadSize;
+	
+	/**
+	 * Creates a template with the maximum payload size of the prototype (setMaxPayloadSize) if set, otherwise 
+	 * ZNetTxRequest.ZNET_MAX_PAYLOAD_SIZE or TxRequestBase.MAX_PAYLOAD_SIZE.  AT command values are only limited by 
+	 * the frame length.
+	 * 
+	 * @param prototype
+	 */
+	public RequestTemplate(XBeeRequest prototype) {
+		this(prototype, getMaxPayloadSize(prototype));
+	}
+	
+	/**
+	 * Creates a template with the maximum payload size of the radio, e.g. from the NP parameter 
+	 * (FragmentTransport.queryMaxPayloadSize)
+	 * 
+	 * @param prototype
+	 * @param maxPayloadSize
+	 */
+	public RequestTemplate(XBeeRequest prototype, int maxPayloadSize) {
+		int[] payload;
+		
+		if (prototype instanceof ZNetTxRequest) {
+			payload = ((ZNetTxRequest) prototype).getPayload();
+		} else if (prototype instanceof TxRequestBase) {
+			payload = ((TxRequestBase) prototype).getPayload();
+		} else if (prototype instanceof AtCommand) {
+			payload = ((AtCommand) prototype).getValue();
+		} else {
+			throw new IllegalArgumentException("Templates are not supported for " + prototype.getClass().getName());
+		}
+		
+		int[] frameData = prototype.getFrameData();
+		
+		this.apiId = prototype.getApiId();
+		this.destination = CongestionController.getDestination(prototype);
+		this.headerLength = frameData.length - (payload != null ? payload.length : 0);
+		// the length field of the frame is 2 bytes
+		this.maxPayloadSize = Math.min(maxPayloadSize, 0xffff - headerLength);
+		
+		if (this.maxPayloadSize < 0) {
+			throw new IllegalArgumentException("maxPayloadSize must be >= 0");
+		}
+		
+		// the frame id is always the second byte
+		this.head = escape(frameData, 0, 1);
+		this.tail = escape(frameData, 2, headerLength);
+		
+		int sum = 0;
+		
+		for (int i = 0; i < headerLength; i++) {
+			if (i != 1) {
+				sum+= frameData[i];
+			}
+		}
+		
+		this.partialChecksum = sum;
+	}
+	
+	private static int getMaxPayloadSize(XBeeRequest prototype) {
+		if (prototype instanceof ZNetTxRequest) {
+			int max = ((ZNetTxRequest) prototype).getMaxPayloadSize();
+			return max > 0 ? max : ZNetTxRequest.ZNET_MAX_PAYLOAD_SIZE;
+		} else if (prototype instanceof TxRequestBase) {
+			int max = ((TxRequestBase) prototype).getMaxPayloadSize();
+			return max > 0 ? max : TxRequestBase.MAX_PAYLOAD_SIZE;
+		}
+		
+		return Integer.MAX_VALUE;
+	}
+	
+	private static byte[] escape(int[] frameData, int start, int end) {
+		ByteBuffer buffer = ByteBuffer.allocate((end - start) * 2);
+		
+		for (int i = start; i < end; i++) {
+			FrameEncoder.putEscaped(buffer, frameData[i]);
+		}
+		
+		byte[] bytes = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+		return bytes;
+	}
+	
+	/**
+	 * Encodes the packet, including the start byte, into buffer at its position and returns the number of bytes written.
+	 * 
+	 * @param buffer
+	 * @param frameId
+	 * @param payload
+	 * @throws IllegalArgumentException if the payload exceeds the maximum payload size
+	 */
+	public int encodeTo(ByteBuffer buffer, int frameId, int[] payload) {
+		int start = this.startPacket(buffer, frameId, payload.length);
+		int checksum = partialChecksum + frameId;
+		
+		for (int i = 0; i < payload.length; i++) {
+			int b = payload[i];
+			
+			if (b > 255 || b < 0) {
+				throw new RuntimeException("Packet values must not be greater than one byte (255): " + b);
+			}
+			
+			checksum+= b;
+			FrameEncoder.putEscaped(buffer, b);
+		}
+		
+		FrameEncoder.putEscaped(buffer, 0xff - (checksum & 0xff));
+		return buffer.position() - start;
+	}
+	
+	/**
+	 * Same as encodeTo(ByteBuffer, int, int[]) with the payload in a byte array
+	 */
+	public int encodeTo(ByteBuffer buffer, int frameId, byte[] payload, int offset, int length) {
+		int start = this.startPacket(buffer, frameId, length);
+		int checksum = partialChecksum + frameId;
+		
+		for (int i = offset; i < offset + length; i++) {
+			int b = payload[i] & 0xff;
+			checksum+= b;
+			FrameEncoder.putEscaped(buffer, b);
+		}
+		
+		FrameEncoder.putEscaped(buffer, 0xff - (checksum & 0xff));
+		return buffer.position() - start;
+	}
+	
+	/**
+	 * Throws IllegalArgumentException if a payload of payloadLength bytes exceeds the maximum payload size
+	 */
+	public void checkPayloadSize(int payloadLength) {
+		if (payloadLength > maxPayloadSize) {
+			throw new IllegalArgumentException("Payload of " + payloadLength + " bytes exceeds the maximum payload size of " + maxPayloadSize + " bytes.  Please package into multiple packets");
+		}
+	}
+	
+	/**
+	 * Writes the start byte, length and header, and returns the position of the start byte
+	 */
+	private int startPacket(ByteBuffer buffer, int frameId, int payloadLength) {
+		if (frameId > 255 || frameId < 0) {
+			throw new IllegalArgumentException("Frame id is out of range: " + frameId);
+		}
+		
+		this.checkPayloadSize(payloadLength);
+		
+		int start = buffer.position();
+		int length = headerLength + payloadLength;
+		
+		buffer.put((byte) XBeePacket.SpecialByte.START_BYTE.getValue());
+		FrameEncoder.putEscaped(buffer, length >> 8);
+		FrameEncoder.putEscaped(buffer, length & 0xff);
+		buffer.put(head);
+		FrameEncoder.putEscaped(buffer, frameId);
+		buffer.put(tail);
+		
+		return start;
+	}
+	
+	/**
+	 * Returns the maximum size of a packet with this template and a payload of payloadLength bytes
+	 */
+	public int getMaxPacketLength(int payloadLength) {
+		return FrameEncoder.getMaxPacketLength(headerLength + payloadLength);
+	}
+	
+	public ApiId getApiId() {
+		return apiId;
+	}
+	
+	/**
+	 * Returns the destination address of the prototype, or null if it is an AT command
+	 */
+	public XBeeAddress getDestination() {
+		return destination;
+	}
+	
+	public int getMaxPayloadSize() {
+		return maxPayloadSize;
+	}
+	
+	/**
+	 * Returns the number of frame data bytes before the payload
+	 */
+	public int getHeaderLength() {
+		return headerLength;
+	}
+}
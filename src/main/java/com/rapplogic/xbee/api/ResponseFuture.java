@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The response to a request sent with XBee.submit.  The future is completed by the receive thread when the response 
+ * with the frame id of the request arrives (see PendingRequestTable), or fails with an XBeeTimeoutException if the 
+ * response does not arrive within the timeout.  Cancelling the future frees its frame id.
+ * <p/>
+ * Callbacks are called once the future is done, by the thread that completes it (the receive thread, the timing 
+ * wheel or the thread that cancels), so they must not block.  A callback added to a future that is already done is 
+ * called straight away.
+ * <p/>
+ * In recycling mode the future holds a reference to the response, which should be released when done.
+ * <p/>
+ * This class is thread-safe
+ * <p/>
+ * @author andrew
+ *
+ */
+public class ResponseFuture implements Future<XBeeFrameIdResponse>, PendingRequestTable.PendingRequest {
+
+	private final static Logger log = Logger.getLogger(ResponseFuture.class);
+	
+	/**
+	 * Called when the future is done
+	 */
+	public interface Callback {
+		void onResponse(XBeeFrameIdResponse response);
+		
+		/**
+		 * Called with XBeeTimeoutException on timeout, CancellationException if cancelled, or the exception that 
+		 * prevented the request from being sent
+		 */
+		void onFailure(Throwable cause);
+	}
+	
+	private final XBeeRequest request;
+	private final PendingRequestTable table;
+	// virtual id assigned by RequestQueue
+	private final long requestId;
+	
+	private boolean done;
+	private boolean cancelled;
+	private XBeeFrameIdResponse response;
+	private Throwable failure;
+	private List<Callback> callbacks;
+	private TimingWheel.Timeout timeoutTask;
+	
+	ResponseFuture(XBeeRequest request, PendingRequestTable table) {
+		this(request, table, 0);
+	}
+	
+	ResponseFuture(XBeeRequest request, PendingRequestTable table, long requestId) {
+		this.request = request;
+		this.table = table;
+		this.requestId = requestId;
+	}
+	
+	public XBeeRequest getRequest() {
+		return request;
+	}
+	
+	/**
+	 * Returns the virtual request id of a request sent with XBee.enqueue, or 0 if sent with XBee.submit
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+	
+	/**
+	 * Called by the receive thread with the response
+	 */
+	public void complete(XBeeFrameIdResponse response) {
+		List<Callback> notify;
+		
+		synchronized (this) {
+			if (done) {
+				return;
+			}
+			
+			this.response = (XBeeFrameIdResponse) response.retain();
+			notify = this.finish();
+		}
+		
+		this.callback(notify);
+	}
+	
+	/**
+	 * Fails the future, if not done, and frees its frame id
+	 */
+	void fail(Throwable cause) {
+		List<Callback> notify;
+		
+		synchronized (this) {
+			if (done) {
+				return;
+			}
+			
+			table.remove(request.getFrameId(), this);
+			
+			this.failure = cause;
+			notify = this.finish();
+		}
+		
+		this.callback(notify);
+	}
+	
+	/**
+	 * Allocates a frame id from the table, registers this future for it and sets it on the request, unless the future is 
+	 * done (RequestQueue).  Atomic with respect to fail and cancel, so a future that is done never takes a frame id.
+	 * 
+	 * @return the frame id, 0 if all frame ids are in flight or -1 if the future is done
+	 */
+	synchronized int register() {
+		if (done) {
+			return -1;
+		}
+		
+		int frameId = table.tryRegister(this);
+		
+		if (frameId != 0) {
+			request.setFrameId(frameId);
+		}
+		
+		return frameId;
+	}
+	
+	/**
+	 * Sets the timeout that fails this future; the timeout is cancelled when the future is done
+	 */
+	synchronized void setTimeoutTask(TimingWheel.Timeout timeoutTask) {
+		if (done) {
+			timeoutTask.cancel();
+		} else {
+			this.timeoutTask = timeoutTask;
+		}
+	}
+	
+	/**
+	 * Fails the future with XBeeTimeoutException.  Called by the timing wheel
+	 */
+	void timeout() {
+		this.fail(new XBeeTimeoutException());
+	}
+	
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		List<Callback> notify;
+		
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			
+			table.remove(request.getFrameId(), this);
+			
+			this.cancelled = true;
+			this.failure = new CancellationException();
+			notify = this.finish();
+		}
+		
+		this.callback(notify);
+		return true;
+	}
+	
+	/**
+	 * Marks the future done and returns the callbacks to call, outside the lock
+	 */
+	private List<Callback> finish() {
+		done = true;
+		this.notifyAll();
+		
+		if (timeoutTask != null) {
+			timeoutTask.cancel();
+			timeoutTask = null;
+		}
+		
+		List<Callback> notify = callbacks;
+		callbacks = null;
+		return notify;
+	}
+	
+	private void callback(List<Callback> notify) {
+		if (notify == null) {
+			return;
+		}
+		
+		for (Callback callback : notify) {
+			this.callback(callback);
+		}
+	}
+	
+	private void callback(Callback callback) {
+		try {
+			if (response != null) {
+				callback.onResponse(response);
+			} else {
+				callback.onFailure(failure);
+			}
+		} catch (Throwable th) {
+			log.warn("Exception in response callback", th);
+		}
+	}
+	
+	/**
+	 * Adds a callback that is called when the future is done, or straight away if it is already done
+	 * 
+	 * @param callback
+	 */
+	public void addCallback(Callback callback) {
+		synchronized (this) {
+			if (!done) {
+				if (callbacks == null) {
+					callbacks = new ArrayList<Callback>(1);
+				}
+				
+				callbacks.add(callback);
+				return;
+			}
+		}
+		
+		this.callback(callback);
+	}
+	
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	public synchronized XBeeFrameIdResponse get() throws InterruptedException, ExecutionException {
+		while (!done) {
+			this.wait();
+		}
+		
+		return this.getResult();
+	}
+
+	public synchronized XBeeFrameIdResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long remaining;
+		
+		while (!done) {
+			if ((remaining = deadline - System.nanoTime()) <= 0) {
+				throw new TimeoutException();
+			}
+			
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		
+		return this.getResult();
+	}
+	
+	private XBeeFrameIdResponse getResult() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		} else if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		
+		return response;
+	}
+	
+	public synchronized String toString() {
+		return "ResponseFuture[" + request + (done ? ",response=" + response + ",failure=" + failure : ",pending") + "]";
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+import com.rapplogic.xbee.api.wpan.RxResponse16;
+import com.rapplogic.xbee.api.wpan.RxResponse64;
+import com.rapplogic.xbee.api.wpan.RxResponseIoSample;
+import com.rapplogic.xbee.api.wpan.TxStatusResponse;
+import com.rapplogic.xbee.api.zigbee.ZNetExplicitRxResponse;
+import com.rapplogic.xbee.api.zigbee.ZNetNodeIdentificationResponse;
+import com.rapplogic.xbee.api.zigbee.ZNetRxIoSampleResponse;
+import com.rapplogic.xbee.api.zigbee.ZNetRxResponse;
+import com.rapplogic.xbee.api.zigbee.ZNetTxStatusResponse;
+
+/**
+ * Maps API IDs to the ResponseFactory that creates the response for that API ID.
+ * Lookup is a single array access (one slot per API ID) and responses are created without reflection.
+ * <p/>
+ * Each XBee has its own registry, so radios in the same JVM may use different handlers.
+ * A registry may have a parent; API IDs that are not registered locally are looked up in the parent.
+ * The registry of each XBee uses the default registry as its parent, which is where the static
+ * XBee.registerResponseHandler registers handlers.
+ * <p/>
+ * This class is thread-safe
+ * <p/>
+ * @author andrew
+ *
+ */
+public class ResponseHandlerRegistry {
+
+	private final static Logger log = Logger.getLogger(ResponseHandlerRegistry.class);
+
+	private final static ResponseHandlerRegistry defaultRegistry = new ResponseHandlerRegistry(null);
+
+	static {
+		defaultRegistry.register(ApiId.AT_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new AtCommandResponse(); }
+		});
+		defaultRegistry.register(ApiId.MODEM_STATUS_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new ModemStatusResponse(); }
+		});
+		defaultRegistry.register(ApiId.REMOTE_AT_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new RemoteAtResponse(); }
+		});
+		defaultRegistry.register(ApiId.RX_16_IO_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new RxResponseIoSample(); }
+		});
+		defaultRegistry.register(ApiId.RX_64_IO_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new RxResponseIoSample(); }
+		});
+		defaultRegistry.register(ApiId.RX_16_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new RxResponse16(); }
+		});
+		defaultRegistry.register(ApiId.RX_64_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new RxResponse64(); }
+		});
+		defaultRegistry.register(ApiId.TX_STATUS_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new TxStatusResponse(); }
+		});
+		defaultRegistry.register(ApiId.ZNET_EXPLICIT_RX_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new ZNetExplicitRxResponse(); }
+		});
+		defaultRegistry.register(ApiId.ZNET_IO_NODE_IDENTIFIER_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new ZNetNodeIdentificationResponse(); }
+		});
+		defaultRegistry.register(ApiId.ZNET_IO_SAMPLE_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new ZNetRxIoSampleResponse(); }
+		});
+		defaultRegistry.register(ApiId.ZNET_RX_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new ZNetRxResponse(); }
+		});
+		defaultRegistry.register(ApiId.ZNET_TX_STATUS_RESPONSE.getValue(), new ResponseFactory() {
+			public XBeeResponse newInstance() { return new ZNetTxStatusResponse(); }
+		});
+	}
+
+	/**
+	 * Returns the registry shared by all XBee instances, which contains the built-in response handlers
+	 */
+	public static ResponseHandlerRegistry getDefault() {
+		return defaultRegistry;
+	}
+
+	/**
+	 * Creates ResponseFactory instances for handlers registered by class (XBee.registerResponseHandler).
+	 * This is the only place reflection is used.
+	 */
+	private static class ClassResponseFactory implements ResponseFactory {
+
+		private final Class<? extends XBeeResponse> clazz;
+
+		ClassResponseFactory(Class<? extends XBeeResponse> clazz) {
+			this.clazz = clazz;
+		}
+
+		public XBeeResponse newInstance() {
+			try {
+				return clazz.newInstance();
+			} catch (Exception e) {
+				throw new RuntimeException("Unable to create response handler " + clazz.getCanonicalName(), e);
+			}
+		}
+
+		public String toString() {
+			return clazz.getCanonicalName();
+		}
+	}
+
+	private final ResponseHandlerRegistry parent;
+	private final AtomicReferenceArray<ResponseFactory> factories = new AtomicReferenceArray<ResponseFactory>(256);
+
+	/**
+	 * Creates a registry that falls back to the default registry
+	 */
+	public ResponseHandlerRegistry() {
+		this(defaultRegistry);
+	}
+
+	/**
+	 * Creates a registry that falls back to parent for unregistered API IDs.  Parent may be null
+	 */
+	public ResponseHandlerRegistry(ResponseHandlerRegistry parent) {
+		this.parent = parent;
+	}
+
+	public void register(int apiId, ResponseFactory factory) {
+		checkApiId(apiId);
+
+		if (factory == null) {
+			throw new IllegalArgumentException("factory is null");
+		}
+
+		ResponseFactory previous = factories.getAndSet(apiId, factory);
+
+		if (previous == null) {
+			log.info("Registering response handler " + factory + " for apiId: " + apiId);
+		} else {
+			log.warn("Overriding existing implementation: " + previous + ", with " + factory + " for apiId: " + apiId);
+		}
+	}
+
+	public void register(int apiId, Class<? extends XBeeResponse> clazz) {
+		this.register(apiId, new ClassResponseFactory(clazz));
+	}
+
+	/**
+	 * Removes the handler registered with this registry.  Handlers of the parent registry are not affected.
+	 *
+	 * @throws IllegalArgumentException if no handler is registered for the API ID
+	 */
+	public void unregister(int apiId) {
+		checkApiId(apiId);
+
+		ResponseFactory previous = factories.getAndSet(apiId, null);
+
+		if (previous != null) {
+			log.info("Unregistering response handler " + previous + " for apiId: " + apiId);
+		} else {
+			throw new IllegalArgumentException("No response handler for: " + apiId);
+		}
+	}
+
+	/**
+	 * Returns the factory for the API ID, or null if none is registered here or in the parent
+	 */
+	public ResponseFactory get(int apiId) {
+		if (apiId < 0 || apiId > 0xff) {
+			return null;
+		}
+
+		ResponseFactory factory = factories.get(apiId);
+
+		if (factory == null && parent != null) {
+			return parent.get(apiId);
+		}
+
+		return factory;
+	}
+
+	/**
+	 * Returns a new response for the API ID, or null if there is no handler
+	 */
+	public XBeeResponse newResponse(int apiId) {
+		ResponseFactory factory = this.get(apiId);
+
+		if (factory == null) {
+			return null;
+		}
+
+		return factory.newInstance();
+	}
+
+	private static void checkApiId(int apiId) {
+		if (apiId < 0 || apiId > 0xff) {
+			throw new IllegalArgumentException("API ID is out of range: " + apiId);
+		}
+	}
+}
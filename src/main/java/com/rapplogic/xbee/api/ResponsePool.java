@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+/**
+ * Per API ID pools of response objects, used in recycling mode (XBeeConfiguration.withResponseRecycling).
+ * Responses are created by the ResponseHandlerRegistry when the pool is empty and return to the pool when their 
+ * last reference is released (see XBeeResponse.release()).  Only types that are recyclable (XBeeResponse.isRecyclable()) 
+ * are pooled; other types are created for each packet as usual.
+ * <p/>
+ * This class is thread-safe
+ * <p/>
+ * @author andrew
+ *
+ */
+public class ResponsePool {
+
+	/**
+	 * Default maximum number of idle responses kept per API ID
+	 */
+	public final static int DEFAULT_MAX_IDLE = 32;
+	
+	private final ResponseHandlerRegistry registry;
+	private final TypePool[] pools = new TypePool[256];
+	
+	private static class TypePool {
+		private final XBeeResponse[] idle;
+		private int size;
+		
+		TypePool(int maxIdle) {
+			idle = new XBeeResponse[maxIdle];
+		}
+		
+		synchronized XBeeResponse poll() {
+			if (size == 0) {
+				return null;
+			}
+			
+			XBeeResponse response = idle[--size];
+			idle[size] = null;
+			return response;
+		}
+		
+		synchronized void offer(XBeeResponse response) {
+			// when full the response is left to the garbage collector
+			if (size < idle.length) {
+				idle[size++] = response;
+			}
+		}
+	}
+	
+	public ResponsePool(ResponseHandlerRegistry registry) {
+		this(registry, DEFAULT_MAX_IDLE);
+	}
+	
+	public ResponsePool(ResponseHandlerRegistry registry, int maxIdle) {
+		this.registry = registry;
+		
+		for (int i = 0; i < pools.length; i++) {
+			pools[i] = new TypePool(maxIdle);
+		}
+	}
+	
+	/**
+	 * Returns a response for the API ID, from the pool if available, or null if there is no handler
+	 */
+	public XBeeResponse newResponse(int apiId) {
+		XBeeResponse response = pools[apiId & 0xff].poll();
+		
+		if (response == null) {
+			response = registry.newResponse(apiId);
+			
+			if (response == null || !response.isRecyclable()) {
+				return response;
+			}
+		}
+		
+		response.setPool(this, apiId & 0xff);
+		return response;
+	}
+	
+	/**
+	 * Called when the last reference to a response is released
+	 */
+	void recycle(XBeeResponse response, int apiId) {
+		response.reset();
+		pools[apiId].offer(response);
+	}
+}
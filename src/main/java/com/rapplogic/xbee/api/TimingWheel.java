@@ -0,0 +1,378 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A hashed timing wheel: runs tasks after a delay, on a single ticker thread.  Used for request timeouts 
+ * (XBee.submit, XBee.enqueue, XBee.sendSynchronous) and fragment retransmit timers (FragmentTransport), so thousands of 
+ * pending requests cost one thread and no thread per request.
+ * <p/>
+ * The wheel has a power of two number of buckets, one per tick (default 10ms).  A timeout goes in the bucket of the 
+ * tick it is due in; one with a delay longer than a turn of the wheel stays in its bucket until the turn it is due.  
+ * Scheduling and cancelling are O(1): both only add the timeout to a queue, which the ticker drains into (or out of) 
+ * the buckets when it wakes up.  Timeouts expire up to one tick late, never early.
+ * <p/>
+ * The ticker thread is started by the first schedule, and sleeps until the tick of the next bucket that has a timeout 
+ * (or until a timeout is scheduled), so a wheel that is not used has no thread and an idle wheel does not wake up.
+ * <p/>
+ * Tasks run on the ticker thread, one after another, so they must not block.
+ * <p/>
+ * This class is thread-safe
+ * <p/>
+ * @author andrew
+ *
+ */
+public class TimingWheel {
+
+	private final static Logger log = Logger.getLogger(TimingWheel.class);
+	
+	public final static long DEFAULT_TICK_DURATION = 10;
+	public final static int DEFAULT_TICKS_PER_WHEEL = 512;
+	
+	/**
+	 * A scheduled task
+	 */
+	public interface Timeout {
+		/**
+		 * Cancels the task.  Returns false if it has already run or been cancelled.
+		 */
+		boolean cancel();
+		
+		boolean isExpired();
+		
+		boolean isCancelled();
+	}
+	
+	private final static int PENDING = 0;
+	private final static int CANCELLED = 1;
+	private final static int EXPIRED = 2;
+	
+	private final class Entry implements Timeout {
+		private final Runnable task;
+		// nanos since the wheel started
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		
+		// the fields below are only used by the ticker thread
+		private Bucket bucket;
+		private Entry prev;
+		private Entry next;
+		
+		private Entry(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+		
+		public boolean cancel() {
+			if (!state.compareAndSet(PENDING, CANCELLED)) {
+				return false;
+			}
+			
+			// the ticker removes it from its bucket, if it has been added to one
+			cancelled.add(this);
+			return true;
+		}
+		
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+		
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+		
+		private void expire() {
+			if (!state.compareAndSet(PENDING, EXPIRED)) {
+				return;
+			}
+			
+			try {
+				task.run();
+			} catch (Throwable th) {
+				log.warn("Exception in timeout task", th);
+			}
+		}
+	}
+	
+	/**
+	 * Doubly linked list of timeouts
+	 */
+	private final static class Bucket {
+		private Entry head;
+		private Entry tail;
+		
+		private void add(Entry entry) {
+			entry.bucket = this;
+			
+			if (head == null) {
+				head = tail = entry;
+			} else {
+				tail.next = entry;
+				entry.prev = tail;
+				tail = entry;
+			}
+		}
+		
+		private void remove(Entry entry) {
+			if (entry.prev != null) {
+				entry.prev.next = entry.next;
+			} else {
+				head = entry.next;
+			}
+			
+			if (entry.next != null) {
+				entry.next.prev = entry.prev;
+			} else {
+				tail = entry.prev;
+			}
+			
+			entry.bucket = null;
+			entry.prev = null;
+			entry.next = null;
+		}
+		
+		/**
+		 * Expires the timeouts that are due; the others are for a later turn of the wheel.  Returns the number expired.
+		 */
+		private int expire(long now) {
+			int expired = 0;
+			Entry entry = head;
+			
+			while (entry != null) {
+				Entry next = entry.next;
+				
+				if (entry.deadline <= now) {
+					this.remove(entry);
+					entry.expire();
+					expired++;
+				}
+				
+				entry = next;
+			}
+			
+			return expired;
+		}
+	}
+	
+	private final long tickDuration;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startTime = System.nanoTime();
+	
+	private final Queue<Entry> scheduled = new ConcurrentLinkedQueue<Entry>();
+	private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<Entry>();
+	
+	// started by the first schedule
+	private final AtomicBoolean started = new AtomicBoolean();
+	private volatile Thread ticker;
+	private volatile boolean stopped;
+	// when the ticker will next wake up, in nanos since the wheel started; Long.MAX_VALUE if the wheel is empty
+	private volatile long wakeAt = Long.MAX_VALUE;
+	
+	// only used by the ticker thread
+	private long tick;
+	private int size;
+	
+	public TimingWheel() {
+		this(DEFAULT_TICK_DURATION, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+	}
+	
+	/**
+	 * Creates a wheel.  The ticker thread (a daemon) is started by the first schedule.
+	 * 
+	 * @param tickDuration the resolution of the wheel
+	 * @param unit
+	 * @param ticksPerWheel number of buckets, rounded up to a power of two
+	 */
+	public TimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("Tick duration must be greater than 0");
+		}
+		
+		if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+			throw new IllegalArgumentException("Ticks per wheel must be between 1 and 2^30");
+		}
+		
+		int buckets = 1;
+		
+		while (buckets < ticksPerWheel) {
+			buckets<<= 1;
+		}
+		
+		this.tickDuration = unit.toNanos(tickDuration);
+		this.wheel = new Bucket[buckets];
+		this.mask = buckets - 1;
+		
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Bucket();
+		}
+	}
+	
+	/**
+	 * Runs the task after the delay, on the ticker thread
+	 * 
+	 * @throws IllegalStateException if the wheel is stopped
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (stopped) {
+			throw new IllegalStateException("Timing wheel is stopped");
+		}
+		
+		Entry entry = new Entry(task, System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0)));
+		// the ticker adds it to its bucket when it next wakes up
+		scheduled.add(entry);
+		
+		Thread thread = ticker;
+		
+		if (thread == null) {
+			this.start();
+		} else if (entry.deadline < wakeAt) {
+			// due before the ticker would wake up
+			LockSupport.unpark(thread);
+		}
+		
+		return entry;
+	}
+	
+	private void start() {
+		if (!started.compareAndSet(false, true)) {
+			// started by another thread, which drains the queue first
+			return;
+		}
+		
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				tick();
+			}
+		}, "TimingWheel");
+		
+		thread.setDaemon(true);
+		ticker = thread;
+		thread.start();
+	}
+	
+	/**
+	 * Expires the buckets of the ticks that have passed, then sleeps until the end of the tick of the next bucket 
+	 * that has a timeout, or until a timeout is scheduled if the wheel is empty.  An idle wheel does not wake up.
+	 */
+	private void tick() {
+		while (!stopped) {
+			long now = System.nanoTime() - startTime;
+			
+			this.removeCancelled();
+			this.addScheduled();
+			
+			long current = now / tickDuration;
+			// after a long sleep every bucket is visited once
+			long end = Math.min(current, tick + wheel.length);
+			
+			for (long t = tick; t < end && size > 0; t++) {
+				size-= wheel[(int) (t & mask)].expire(now);
+			}
+			
+			tick = Math.max(tick, current);
+			
+			wakeAt = this.nextWakeUp();
+			
+			// a timeout scheduled before wakeAt was published did not unpark the ticker
+			if (!scheduled.isEmpty() || stopped) {
+				continue;
+			}
+			
+			if (wakeAt == Long.MAX_VALUE) {
+				LockSupport.park(this);
+			} else {
+				LockSupport.parkNanos(this, wakeAt - (System.nanoTime() - startTime));
+			}
+		}
+	}
+	
+	/**
+	 * Returns the end of the tick of the next bucket that has a timeout, or Long.MAX_VALUE if the wheel is empty
+	 */
+	private long nextWakeUp() {
+		if (size == 0) {
+			return Long.MAX_VALUE;
+		}
+		
+		for (int i = 0; i < wheel.length; i++) {
+			if (wheel[(int) ((tick + i) & mask)].head != null) {
+				return (tick + i + 1) * tickDuration;
+			}
+		}
+		
+		return Long.MAX_VALUE;
+	}
+	
+	private void removeCancelled() {
+		Entry entry;
+		
+		while ((entry = cancelled.poll()) != null) {
+			// not yet in a bucket if cancelled before the ticker added it
+			if (entry.bucket != null) {
+				entry.bucket.remove(entry);
+				size--;
+			}
+		}
+	}
+	
+	private void addScheduled() {
+		Entry entry;
+		
+		while ((entry = scheduled.poll()) != null) {
+			if (entry.state.get() != PENDING) {
+				continue;
+			}
+			
+			long ticks = entry.deadline / tickDuration;
+			// a deadline that has already passed goes in the current bucket
+			long expiresAt = Math.max(ticks, tick);
+			
+			wheel[(int) (expiresAt & mask)].add(entry);
+			size++;
+		}
+	}
+	
+	/**
+	 * Stops the ticker thread.  Timeouts that have not expired never run.
+	 */
+	public void stop() {
+		stopped = true;
+		
+		Thread thread = ticker;
+		
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+	
+	public boolean isStopped() {
+		return stopped;
+	}
+}
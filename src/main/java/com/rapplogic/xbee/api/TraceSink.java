@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+/**
+ * Receives a structured event for each field byte read by the packet parser, in place of debug logging.
+ * The field is a constant that names the field (e.g. "64-bit Address byte") and index is the position of 
+ * the byte within a multi-byte field, or -1.  Offset is the position of the byte in the (un-escaped) packet, 
+ * where the length MSB is 0.
+ * <p/>
+ * The default sink, NONE, does nothing so the call is inlined away by the JIT.  Implementations are called 
+ * from the parsing thread for every byte and must not block.
+ * <p/>
+ * @author andrew
+ *
+ */
+public interface TraceSink {
+	
+	/**
+	 * Discards all events
+	 */
+	TraceSink NONE = new TraceSink() {
+		public void trace(String field, int index, int offset, int value) {
+			
+		}
+	};
+	
+	void trace(String field, int index, int offset, int value);
+}
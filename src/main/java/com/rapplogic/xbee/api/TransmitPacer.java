@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Spaces writes to the radio so its serial receive buffer is never overrun.  The buffer is modelled as a token bucket: 
+ * it holds bufferSize bytes, fills at the serial line rate (baudRate / 10 bytes per second, for 8N1 framing) and 
+ * drains at the drain rate, the radio's over-the-air throughput, which is well below the line rate.  Before a write 
+ * the pacer waits until the bytes fit in the modelled buffer, so bursts up to the buffer size are written at once and 
+ * sustained traffic runs at the drain rate.
+ * <p/>
+ * The baud rate is taken from the connection when it is a SerialPortConnection; otherwise set it with setBaudRate.  
+ * Until it is known, the model assumes no bytes drain while a write is on the line, which paces slightly more than 
+ * needed.
+ * <p/>
+ * With flow control enabled the pacer also waits while the radio deasserts CTS, up to the CTS timeout.  This requires a 
+ * connection that implements ClearToSend (e.g. SerialPortConnection) and the radio's CTS line (D7=1).  Writers wait 
+ * for CTS without holding the pacer's lock, and stop waiting if interrupted.
+ * <p/>
+ * Install with XBeeConfiguration.withTransmitPacer.  A pacer models one radio, so must not be shared by XBee instances.
+ * <p/>
+ * This class is thread-safe
+ * <p/>
+ * @author andrew
+ *
+ */
+public class TransmitPacer {
+	
+	private final static Logger log = Logger.getLogger(TransmitPacer.class);
+	
+	/**
+	 * Reports the state of the radio's CTS line
+	 */
+	public interface ClearToSend {
+		/**
+		 * Returns true if the radio is ready to receive (CTS asserted)
+		 */
+		boolean isClearToSend();
+	}
+	
+	/**
+	 * Default size of the radio's serial receive buffer, in bytes.  This is the smallest of the Series 1 and ZNet radios
+	 */
+	public final static int DEFAULT_BUFFER_SIZE = 100;
+	
+	/**
+	 * Default time a write waits for CTS before failing, in milliseconds
+	 */
+	public final static int DEFAULT_CLEAR_TO_SEND_TIMEOUT = 5000;
+	
+	// how long to wait before checking CTS again
+	private final static long CTS_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	private final int drainRate;
+	private final int bufferSize;
+	private final boolean flowControl;
+	// time for one byte to drain from the buffer
+	private final long nanosPerByte;
+	private final long clearToSendTimeoutNanos;
+	
+	private volatile int baudRate;
+	// time for one byte to arrive on the serial line, or 0 if the baud rate is not known
+	private volatile long lineNanosPerByte;
+	
+	private volatile ClearToSend clearToSend;
+	
+	// time at which the modelled buffer is empty
+	private long emptyAt;
+	
+	private volatile long bytesPaced;
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong clearToSendWaits = new AtomicLong();
+	
+	public TransmitPacer(int drainRate) {
+		this(drainRate, DEFAULT_BUFFER_SIZE);
+	}
+	
+	public TransmitPacer(int drainRate, int bufferSize) {
+		this(drainRate, bufferSize, false);
+	}
+	
+	public TransmitPacer(int drainRate, int bufferSize, boolean flowControl) {
+		this(drainRate, bufferSize, flowControl, DEFAULT_CLEAR_TO_SEND_TIMEOUT);
+	}
+	
+	/**
+	 * @param drainRate the rate, in bytes per second, at which the radio sends the buffered bytes over the air
+	 * @param bufferSize the size of the radio's serial receive buffer
+	 * @param flowControl when true, also wait while the radio deasserts CTS
+	 * @param clearToSendTimeout milliseconds a write waits for CTS before failing
+	 */
+	public TransmitPacer(int drainRate, int bufferSize, boolean flowControl, int clearToSendTimeout) {
+		if (drainRate <= 0) {
+			throw new IllegalArgumentException("drainRate must be > 0");
+		}
+		
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be > 0");
+		}
+		
+		if (clearToSendTimeout <= 0) {
+			throw new IllegalArgumentException("clearToSendTimeout must be > 0");
+		}
+		
+		this.drainRate = drainRate;
+		this.bufferSize = bufferSize;
+		this.flowControl = flowControl;
+		this.nanosPerByte = TimeUnit.SECONDS.toNanos(1) / drainRate;
+		this.clearToSendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(clearToSendTimeout);
+		this.emptyAt = System.nanoTime();
+	}
+	
+	/**
+	 * Waits until length bytes may be written.  A write larger than the buffer waits until the buffer is empty.
+	 * 
+	 * @param length
+	 * @throws InterruptedIOException if interrupted while waiting for CTS
+	 * @throws IOException if CTS is not asserted within the CTS timeout
+	 */
+	public void acquire(int length) throws IOException {
+		// not holding the lock, so a radio that never asserts CTS does not block other writers on the monitor
+		this.awaitClearToSend();
+		this.pace(length);
+	}
+	
+	private void awaitClearToSend() throws IOException {
+		ClearToSend cts = clearToSend;
+		
+		if (!flowControl || cts == null || cts.isClearToSend()) {
+			return;
+		}
+		
+		long start = System.nanoTime();
+		
+		clearToSendWaits.incrementAndGet();
+		
+		while (!cts.isClearToSend()) {
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for CTS");
+			}
+			
+			if (System.nanoTime() - start >= clearToSendTimeoutNanos) {
+				throw new IOException("Radio did not assert CTS within " + TimeUnit.NANOSECONDS.toMillis(clearToSendTimeoutNanos) + "ms");
+			}
+			
+			LockSupport.parkNanos(this, CTS_POLL_NANOS);
+		}
+		
+		long waited = System.nanoTime() - start;
+		waitNanos.addAndGet(waited);
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Waited " + TimeUnit.NANOSECONDS.toMicros(waited) + "us for CTS");
+		}
+	}
+	
+	/**
+	 * Waits until length bytes fit in the modelled buffer.  The wait is bounded by the time the buffer takes to drain.
+	 */
+	private synchronized void pace(int length) {
+		long now = System.nanoTime();
+		
+		if (emptyAt - now < 0) {
+			emptyAt = now;
+		}
+		
+		// the buffer keeps draining while the bytes are on the line, so each byte adds the difference of the two rates
+		long added = length * Math.max(0, nanosPerByte - lineNanosPerByte);
+		long capacity = bufferSize * nanosPerByte;
+		
+		long target = emptyAt + Math.min(added, capacity);
+		// the bytes fit once the buffer has drained enough for them
+		long deadline = target - capacity;
+		
+		if (deadline - now > 0) {
+			waitNanos.addAndGet(deadline - now);
+			this.waitUntil(deadline);
+		}
+		
+		emptyAt = target + (added - Math.min(added, capacity));
+		bytesPaced+= length;
+	}
+	
+	private void waitUntil(long deadline) {
+		long remaining;
+		
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(this, remaining);
+		}
+	}
+	
+	/**
+	 * Sets the source of the CTS state.  Called by XBee with the connection, if it implements ClearToSend
+	 * 
+	 * @param clearToSend
+	 */
+	void setClearToSend(ClearToSend clearToSend) {
+		this.clearToSend = clearToSend;
+	}
+	
+	/**
+	 * Sets the baud rate of the serial connection.  Called by XBee when the connection is a SerialPortConnection.
+	 * 
+	 * @param baudRate
+	 */
+	public void setBaudRate(int baudRate) {
+		if (baudRate <= 0) {
+			throw new IllegalArgumentException("baudRate must be > 0");
+		}
+		
+		this.baudRate = baudRate;
+		// 10 bits per byte: start bit, 8 data bits, stop bit
+		this.lineNanosPerByte = TimeUnit.SECONDS.toNanos(10) / baudRate;
+	}
+	
+	/**
+	 * Returns the baud rate of the serial connection, or 0 if not known
+	 */
+	public int getBaudRate() {
+		return baudRate;
+	}
+	
+	public int getDrainRate() {
+		return drainRate;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public boolean isFlowControl() {
+		return flowControl;
+	}
+	
+	public long getBytesPaced() {
+		return bytesPaced;
+	}
+	
+	/**
+	 * Returns the total time writers have waited, in nanoseconds
+	 */
+	public long getWaitNanos() {
+		return waitNanos.get();
+	}
+
+	/**
+	 * Returns the number of times a write waited for CTS
+	 */
+	public long getClearToSendWaits() {
+		return clearToSendWaits.get();
+	}
+	
+	public int getClearToSendTimeout() {
+		return (int) TimeUnit.NANOSECONDS.toMillis(clearToSendTimeoutNanos);
+	}
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.rapplogic.xbee.XBeeConnection;
+
+/**
+ * Writes requests to the connection from a single thread.  Any number of threads may send requests; each request 
+ * is encoded by the sending thread (XBeeRequest.encodeTo), the packet is added to a lock-free queue and the sending 
+ * thread returns immediately, so the request may be reused straight away.  The writer thread drains the queue, 
+ * copies the packets back-to-back into one buffer and writes and flushes the buffer once per batch.  The writer parks 
+ * when the queue is empty and is unparked by the next send.
+ * <p/>
+ * Write errors cannot be thrown to the sending threads, which have returned; they are logged and counted 
+ * (getFramesFailed).
+ * <p/>
+ * With a TransmitPacer, batches are limited to the radio's buffer size and each batch waits for the pacer.
+ * <p/>
+ * Enabled with XBeeConfiguration.withTransmitThread.  Packets sent with XBee.sendPacket or sendTemplate are copied 
+ * and queued the same way, so the writer thread is the only thread that writes to the connection.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class TransmitThread implements Runnable {
+
+	private final static Logger log = Logger.getLogger(TransmitThread.class);
+	
+	/**
+	 * Default size of the buffer a batch is encoded into.  A batch is written when the buffer is full or the queue is empty
+	 */
+	public final static int DEFAULT_BATCH_SIZE = 1024;
+	
+	private final XBeeConnection connection;
+	// may be null
+	private final TransmitPacer pacer;
+	// encoded packets
+	private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final Thread thread;
+	
+	private volatile boolean done;
+	// true while the writer is parked, or about to park
+	private volatile boolean waiting;
+	
+	// only accessed by the writer thread
+	private ByteBuffer buffer;
+	
+	// written by the writer thread only
+	private volatile long framesSent;
+	private volatile long framesFailed;
+	private volatile long batchesWritten;
+	
+	TransmitThread(XBeeConnection connection, TransmitPacer pacer) {
+		this(connection, pacer, DEFAULT_BATCH_SIZE);
+	}
+	
+	TransmitThread(XBeeConnection connection, TransmitPacer pacer, int batchSize) {
+		this.connection = connection;
+		this.pacer = pacer;
+		this.buffer = ByteBuffer.allocate(batchSize);
+		
+		thread = new Thread(this);
+		thread.setName("TransmitThread");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Encodes the request and queues the packet for writing.  The request may be changed once this method returns.  
+	 * Thread-safe and does not block
+	 * 
+	 * @param request
+	 * @throws RuntimeException if the request cannot be encoded
+	 */
+	public void send(XBeeRequest request) {
+		if (done) {
+			throw new XBeeNotConnectedException();
+		}
+		
+		this.offer(request.encode(null));
+	}
+	
+	/**
+	 * Copies the escaped packet, including the start byte, and queues it for writing.  Thread-safe and does not block
+	 * 
+	 * @param packet
+	 * @param offset
+	 * @param length
+	 */
+	public void send(byte[] packet, int offset, int length) {
+		if (done) {
+			throw new XBeeNotConnectedException();
+		}
+		
+		byte[] copy = new byte[length];
+		System.arraycopy(packet, offset, copy, 0, length);
+		
+		this.offer(ByteBuffer.wrap(copy));
+	}
+	
+	private void offer(ByteBuffer packet) {
+		queue.offer(packet);
+		
+		if (waiting) {
+			LockSupport.unpark(thread);
+		}
+	}
+	
+	public void run() {
+		log.info("TransmitThread started");
+		
+		while (!done) {
+			ByteBuffer packet = queue.poll();
+			
+			if (packet == null) {
+				waiting = true;
+				
+				// check again: a request may have been added before the sender saw waiting
+				if (queue.isEmpty() && !done) {
+					LockSupport.park(this);
+				}
+				
+				waiting = false;
+				continue;
+			}
+			
+			this.writeBatch(packet);
+		}
+		
+		if (!queue.isEmpty()) {
+			log.warn("TransmitThread is exiting with " + queue.size() + " requests not sent");
+		}
+		
+		log.info("TransmitThread is exiting");
+	}
+	
+	/**
+	 * Copies the packet and any packets queued behind it into the buffer, writing each time the buffer is full
+	 */
+	private void writeBatch(ByteBuffer packet) {
+		int frames = 0;
+		// with pacing, a batch must fit in the radio's buffer
+		int limit = pacer != null ? Math.min(buffer.capacity(), pacer.getBufferSize()) : buffer.capacity();
+		
+		buffer.clear();
+		
+		try {
+			while (packet != null) {
+				if (buffer.position() + packet.remaining() > limit) {
+					// does not fit: write what we have
+					this.write(frames);
+					frames = 0;
+					
+					if (packet.remaining() > buffer.capacity()) {
+						buffer = ByteBuffer.allocate(packet.remaining());
+					}
+				}
+				
+				buffer.put(packet);
+				frames++;
+				
+				packet = queue.poll();
+			}
+			
+			this.write(frames);
+		} catch (IOException e) {
+			framesFailed+= frames;
+			log.error("Failed to write " + frames + " frames to the connection", e);
+		}
+	}
+	
+	private void write(int frames) throws IOException {
+		if (buffer.position() == 0) {
+			return;
+		}
+		
+		OutputStream out = connection.getOutputStream();
+		
+		if (pacer != null) {
+			pacer.acquire(buffer.position());
+		}
+		
+		out.write(buffer.array(), 0, buffer.position());
+		out.flush();
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Wrote " + frames + " frames, " + buffer.position() + " bytes");
+		}
+		
+		buffer.clear();
+		framesSent+= frames;
+		batchesWritten++;
+	}
+	
+	/**
+	 * Returns the number of requests waiting to be written.  Not constant time
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+	
+	public long getFramesSent() {
+		return framesSent;
+	}
+	
+	/**
+	 * Returns the number of requests that could not be written
+	 */
+	public long getFramesFailed() {
+		return framesFailed;
+	}
+	
+	/**
+	 * Returns the number of writes (each followed by a flush)
+	 */
+	public long getBatchesWritten() {
+		return batchesWritten;
+	}
+	
+	/**
+	 * Stops the writer thread.  Requests that have not been written are discarded.  A writer waiting for CTS 
+	 * (TransmitPacer) is interrupted.
+	 */
+	public void shutdown() {
+		done = true;
+		thread.interrupt();
+	}
+}
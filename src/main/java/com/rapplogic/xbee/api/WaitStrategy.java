@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+
+import com.rapplogic.xbee.XBeeConnection;
+
+/**
+ * Determines how the input stream thread waits for data from the connection.  
+ * <p/>
+ * Implementations:
+ * <ul>
+ * <li>BlockingWaitStrategy (default): waits on the connection until notified of new data (e.g. by the RXTX serial event)</li>
+ * <li>BlockingReadWaitStrategy: no notification, the thread blocks in the input stream read</li>
+ * <li>YieldingWaitStrategy: polls the input stream, yielding between polls</li>
+ * <li>BackoffSpinWaitStrategy: busy-spins, then yields, then parks for increasing periods</li>
+ * </ul>
+ * The spinning strategies give the lowest latency at the cost of CPU; the blocking strategies use the least CPU.
+ * <p/>
+ * Implementations must be stateless (all state local to awaitData) since a configuration may be shared by several XBees.
+ * <p/>
+ * @author andrew
+ *
+ */
+public interface WaitStrategy {
+	/**
+	 * Waits for data to become available on the connection and returns the maximum number of bytes to request 
+	 * in the next read.  May return 0, in which case awaitData is called again.
+	 * 
+	 * @throws InterruptedException if the thread is interrupted while waiting, which occurs when the XBee is closed
+	 */
+	int awaitData(XBeeConnection connection) throws IOException, InterruptedException;
+}
@@ -20,10 +20,15 @@
 package com.rapplogic.xbee.api;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -43,12 +48,25 @@ public class XBee implements IXBee {
 
 	private final static Logger log = Logger.getLogger(XBee.class);
 	
+	// sendSynchronous stops waiting this long after the timeout, should the timing wheel not fail the future
+	private final static int SYNCHRONOUS_TIMEOUT_MARGIN = 1000;
+	
 	// object to synchronize on to protect access to sendPacket
 	private Object sendPacketBlock = new Object();
+	// reusable buffer for sendPacket(int[]), guarded by itself
+	private final Object sendBufferLock = new Object();
+	private byte[] sendBuffer = new byte[128];
 	private XBeeConnection xbeeConnection;
 	private InputStreamThread parser;	
+	// only with XBeeConfiguration.withTransmitThread
+	private volatile TransmitThread transmitter;
+	// times out the futures of submit, enqueue and sendSynchronous; null once closed
+	private volatile TimingWheel timingWheel;
+	private volatile RequestQueue requestQueue;
 	private XBeeConfiguration conf;
 	private RadioType type;
+	// response handlers of this radio; falls back to the default (static) handlers
+	private final ResponseHandlerRegistry responseHandlerRegistry = new ResponseHandlerRegistry();
 	
 	public XBee() {
 		this(new XBeeConfiguration().withMaxQueueSize(100));
@@ -139,12 +157,24 @@ public class XBee implements IXBee {
 		}
 	}
 	
+	/**
+	 * Registers a response handler with the default registry, which is shared by all XBee instances.
+	 * Use getResponseHandlerRegistry() to register a handler for this radio only.
+	 */
 	public static void registerResponseHandler(int apiId, Class<? extends XBeeResponse> clazz) {
-		PacketParser.registerResponseHandler(apiId, clazz);
+		ResponseHandlerRegistry.getDefault().register(apiId, clazz);
 	}
 	
 	public static void unRegisterResponseHandler(int apiId) {
-		PacketParser.unRegisterResponseHandler(apiId);
+		ResponseHandlerRegistry.getDefault().unregister(apiId);
+	}
+	
+	/**
+	 * Returns the response handlers of this radio.  Handlers registered here take precedence over
+	 * handlers registered with the static registerResponseHandler method.
+	 */
+	public ResponseHandlerRegistry getResponseHandlerRegistry() {
+		return responseHandlerRegistry;
 	}
 	
 	/**
@@ -163,7 +193,27 @@ public class XBee implements IXBee {
 		try {			
 			this.xbeeConnection = conn;
 			
-			parser = new InputStreamThread(this.xbeeConnection, conf);
+			parser = new InputStreamThread(this.xbeeConnection, conf, responseHandlerRegistry);
+			
+			if (conf.getTransmitPacer() != null && conn instanceof TransmitPacer.ClearToSend) {
+				conf.getTransmitPacer().setClearToSend((TransmitPacer.ClearToSend) conn);
+			}
+			
+			if (conf.getTransmitPacer() != null && conn instanceof SerialPortConnection) {
+				conf.getTransmitPacer().setBaudRate(((SerialPortConnection) conn).getBaudRate());
+			}
+			
+			if (conf.getCongestionController() != null) {
+				this.addPacketListener(conf.getCongestionController());
+			}
+			
+			timingWheel = conf.getTimingWheel() != null ? conf.getTimingWheel() : new TimingWheel();
+			
+			requestQueue = new RequestQueue(this, parser.getPendingRequestTable(), timingWheel, conf.getCongestionController());
+			
+			if (conf.isTransmitThread()) {
+				transmitter = new TransmitThread(this.xbeeConnection, conf.getTransmitPacer());
+			}
 			
 			// startup heuristics
 			if (conf.isStartupChecks()) {
@@ -197,6 +247,22 @@ public class XBee implements IXBee {
 	}
 	
 	public void sendRequest(XBeeRequest request) throws IOException {
+		this.checkRadioType(request);
+		boolean acquired = this.acquireCongestionWindow(request);
+		
+		boolean sent = false;
+		
+		try {
+			this.writeRequest(request);
+			sent = true;
+		} finally {
+			if (!sent && acquired) {
+				this.cancelCongestionWindow(request.getFrameId());
+			}
+		}
+	}
+	
+	private void checkRadioType(XBeeRequest request) {
 		if (this.type != null) {
 			// TODO use interface to mark series type
 			if (type == RadioType.SERIES1 && request.getClass().getPackage().getName().indexOf("api.zigbee") > -1) {
@@ -205,9 +271,119 @@ public class XBee implements IXBee {
 				throw new IllegalArgumentException("You are connected to a Series 2 radio but attempting to send Series 1 requests");
 			}
 		}
+	}
+	
+	/**
+	 * Waits until the request fits in the windows of the congestion controller, if any.  Must not be called while 
+	 * holding sendPacketBlock, or a request to a congested destination would hold up requests to all others.
+	 */
+	private boolean acquireCongestionWindow(XBeeRequest request) throws IOException {
+		if (conf.getCongestionController() == null) {
+			return false;
+		}
 		
-		log.info("Sending request to XBee: " + request);
-		this.sendPacket(request.getXBeePacket());
+		try {
+			// blocks while the windows are full
+			return conf.getCongestionController().acquire(request);
+		} catch (InterruptedException e) {
+			throw this.interruptedWaitingForWindow();
+		}
+	}
+	
+	private InterruptedIOException interruptedWaitingForWindow() {
+		Thread.currentThread().interrupt();
+		return new InterruptedIOException("Interrupted while waiting for the congestion window");
+	}
+	
+	/**
+	 * Releases the congestion window of a frame that was acquired but could not be written
+	 */
+	private void cancelCongestionWindow(int frameId) {
+		if (conf.getCongestionController() != null && frameId != XBeeRequest.NO_RESPONSE_FRAME_ID) {
+			conf.getCongestionController().cancel(frameId);
+		}
+	}
+	
+	private void writeRequest(XBeeRequest request) throws IOException {
+		if (log.isInfoEnabled()) {
+			log.info("Sending request to XBee: " + request);
+		}
+		
+		// read once: close sets the field to null
+		TransmitThread writer = transmitter;
+		
+		if (writer != null) {
+			if (!this.isConnected()) {
+				throw new XBeeNotConnectedException();
+			}
+			
+			writer.send(request);
+			return;
+		}
+		
+		synchronized (sendBufferLock) {
+			// encode straight into the send buffer, which is replaced if the packet does not fit
+			ByteBuffer packet = request.encode(sendBuffer);
+			sendBuffer = packet.array();
+			int length = packet.limit();
+			
+			if (log.isDebugEnabled()) {
+				log.debug("Sending packet to XBee " + ByteUtils.toBase16(sendBuffer, 0, length));
+			}
+			
+			this.writePacket(sendBuffer, 0, length);
+		}
+	}
+	
+	/**
+	 * Sends the template's request with the payload (or AT command value).  The packet is encoded straight from the 
+	 * template into the send buffer, so no request object is created.  Congestion control and pacing apply as with 
+	 * sendRequest, and with the transmit thread enabled the packet is queued for the writer thread.
+	 * 
+	 * @param template
+	 * @param frameId
+	 * @param payload
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the payload exceeds the maximum payload size of the template
+	 */
+	public void sendTemplate(RequestTemplate template, int frameId, int[] payload) throws IOException {
+		// before the congestion window is taken
+		template.checkPayloadSize(payload.length);
+		
+		boolean acquired = false;
+		
+		if (conf.getCongestionController() != null) {
+			try {
+				acquired = conf.getCongestionController().acquire(template.getDestination(), frameId);
+			} catch (InterruptedException e) {
+				throw this.interruptedWaitingForWindow();
+			}
+		}
+		
+		boolean sent = false;
+		
+		try {
+			synchronized (sendBufferLock) {
+				int maxLength = template.getMaxPacketLength(payload.length);
+				
+				if (sendBuffer.length < maxLength) {
+					sendBuffer = new byte[Math.max(maxLength, sendBuffer.length * 2)];
+				}
+				
+				int length = template.encodeTo(ByteBuffer.wrap(sendBuffer), frameId, payload);
+				
+				if (log.isDebugEnabled()) {
+					log.debug("Sending packet to XBee " + ByteUtils.toBase16(sendBuffer, 0, length));
+				}
+				
+				this.writePacket(sendBuffer, 0, length);
+				sent = true;
+			}
+		} finally {
+			if (!sent && acquired) {
+				this.cancelCongestionWindow(frameId);
+			}
+		}
 	}
 	
 	/** 
@@ -244,15 +420,107 @@ public class XBee implements IXBee {
 		if (log.isInfoEnabled()) {
 			log.info("Sending packet to XBee " + ByteUtils.toBase16(packet));	
 		}
-
-        for (int packetByte : packet) {
-        	// if connection lost
-        	//Caused by: com.rapplogic.xbee.api.XBeeException
-        	//Caused by: java.io.IOException: Input/output error in writeArray
-        	xbeeConnection.getOutputStream().write(packetByte);
-        }
-
-        xbeeConnection.getOutputStream().flush();
+		
+		int frameId = XBeeRequest.NO_RESPONSE_FRAME_ID;
+		
+		if (conf.getCongestionController() != null) {
+			try {
+				frameId = conf.getCongestionController().acquire(packet);
+			} catch (InterruptedException e) {
+				throw this.interruptedWaitingForWindow();
+			}
+		}
+		
+		boolean sent = false;
+		
+		try {
+			synchronized (sendBufferLock) {
+				if (sendBuffer.length < packet.length) {
+					sendBuffer = new byte[Math.max(packet.length, sendBuffer.length * 2)];
+				}
+				
+				for (int i = 0; i < packet.length; i++) {
+					sendBuffer[i] = (byte) packet[i];
+				}
+				
+				this.writePacket(sendBuffer, 0, packet.length);
+				sent = true;
+			}
+		} finally {
+			if (!sent) {
+				this.cancelCongestionWindow(frameId);
+			}
+		}
+	}
+	
+	/**
+	 * Writes an escaped packet, including the start byte, to the connection with a single bulk write 
+	 * followed by a flush.  The bytes are not copied.  With the transmit thread enabled (see 
+	 * XBeeConfiguration.withTransmitThread), the bytes are instead copied and queued for the writer thread, 
+	 * so they are never interleaved with its batches; write errors are then logged by the writer thread.
+	 * <p/>
+	 * Not Thread Safe
+	 * 
+	 * @param packet
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void sendPacket(byte[] packet, int offset, int length) throws IOException {
+		if (!this.isConnected()) {
+			throw new XBeeNotConnectedException();
+		}
+		
+		int frameId = XBeeRequest.NO_RESPONSE_FRAME_ID;
+		
+		if (conf.getCongestionController() != null) {
+			try {
+				frameId = conf.getCongestionController().acquire(packet, offset, length);
+			} catch (InterruptedException e) {
+				throw this.interruptedWaitingForWindow();
+			}
+		}
+		
+		boolean sent = false;
+		
+		try {
+			this.writePacket(packet, offset, length);
+			sent = true;
+		} finally {
+			if (!sent) {
+				this.cancelCongestionWindow(frameId);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the packet, or queues it for the writer thread, after the congestion window was acquired
+	 */
+	private void writePacket(byte[] packet, int offset, int length) throws IOException {
+		if (!this.isConnected()) {
+			throw new XBeeNotConnectedException();
+		}
+		
+		// read once: close sets the field to null
+		TransmitThread writer = transmitter;
+		
+		if (writer != null) {
+			// the writer thread paces and writes the packet
+			writer.send(packet, offset, length);
+			return;
+		}
+		
+		OutputStream out = xbeeConnection.getOutputStream();
+		
+		// if connection lost
+		//Caused by: com.rapplogic.xbee.api.XBeeException
+		//Caused by: java.io.IOException: Input/output error in writeArray
+		if (conf.getTransmitPacer() != null) {
+			conf.getTransmitPacer().acquire(length);
+		}
+		
+		out.write(packet, offset, length);
+		out.flush();
 	}
 
 	/**
@@ -294,6 +562,8 @@ public class XBee implements IXBee {
 	 * <p/>
 	 * This method returns the first response object with a matching frame id, within the timeout
 	 * period, so it is important to use a unique frame id (relative to previous subsequent requests).
+	 * The response is matched through the PendingRequestTable.  If another request is already waiting for a response 
+	 * with the same frame id, this method waits for that request to complete; the wait counts toward the timeout.
 	 * <p/>
 	 * This method must only be called with requests that receive a response of
 	 * type XBeeFrameIdResponse.  All other request types will timeout.
@@ -315,55 +585,198 @@ public class XBee implements IXBee {
 	 * @throws XBeeTimeoutException thrown if no matching response is identified
 	 */
 	public XBeeResponse sendSynchronous(final XBeeRequest xbeeRequest, int timeout) throws XBeeTimeoutException, XBeeException {		
-		if (xbeeRequest.getFrameId() == XBeeRequest.NO_RESPONSE_FRAME_ID) {
+		if (!conf.isFrameIdAllocation() && xbeeRequest.getFrameId() == XBeeRequest.NO_RESPONSE_FRAME_ID) {
 			throw new XBeeException("Frame Id cannot be 0 for a synchronous call -- it will always timeout as there is no response!");
 		}		
 
-		PacketListener pl = null;
+		// the timeout is run by the timing wheel; close fails the future.
+		// in recycling mode the caller holds a reference to the response
+		ResponseFuture future = this.submit(xbeeRequest, timeout);
 		
 		try {
-			final List<XBeeResponse> container = new LinkedList<XBeeResponse>();
-
-			// this makes it thread safe -- prevents multiple threads from writing to output stream simultaneously
-			synchronized (sendPacketBlock) {
-				this.sendRequest(xbeeRequest);	
+			return future.get(timeout + SYNCHRONOUS_TIMEOUT_MARGIN, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(false);
+			throw new XBeeTimeoutException();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new XBeeTimeoutException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof XBeeException) {
+				// we didn't find a matching packet
+				throw (XBeeException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				// XBeeNotConnectedException if closed
+				throw (RuntimeException) e.getCause();
 			}
 			
-			pl = new PacketListener() {
-				// TODO handle error response as well
-				public void processResponse(XBeeResponse response) {
-					if (response instanceof XBeeFrameIdResponse && ((XBeeFrameIdResponse)response).getFrameId() == xbeeRequest.getFrameId()) {
-						// frame id matches -- yay we found it
-						container.add(response);
-						
-						synchronized(container) {
-							container.notify();	
-						}
-					}
+			throw new XBeeException(e);
+		}
+	}
+	
+	/**
+	 * Sends the request and returns immediately with a future of the response (the response with the frame id of 
+	 * the request).  The future fails with XBeeTimeoutException if the response is not received within timeout 
+	 * milliseconds, or with XBeeNotConnectedException if the XBee is closed first.  Use this instead of sendSynchronous 
+	 * to keep many requests in flight without a thread per request.
+	 * <p/>
+	 * If another request is waiting for a response with the frame id of the request, this method waits (within the 
+	 * timeout) for that request to complete.  With frame id allocation (XBeeConfiguration.withFrameIdAllocation) the 
+	 * frame id is set by this method instead.
+	 * <p/>
+	 * This method is thread-safe
+	 * 
+	 * @param request an AT, remote AT or TX request
+	 * @param timeout
+	 * @throws XBeeException if the frame id is 0, or the request could not be sent
+	 * @throws XBeeTimeoutException if the frame id was not released within the timeout
+	 * @throws XBeeNotConnectedException if the XBee is not connected, or is closed before the request is sent
+	 */
+	public ResponseFuture submit(XBeeRequest request, int timeout) throws XBeeException {
+		if (!conf.isFrameIdAllocation() && request.getFrameId() == XBeeRequest.NO_RESPONSE_FRAME_ID) {
+			throw new XBeeException("Frame Id cannot be 0 -- there is no response!");
+		}
+		
+		// read once: close sets the field to null
+		TimingWheel wheel = timingWheel;
+		
+		if (wheel == null) {
+			throw new XBeeNotConnectedException();
+		}
+		
+		PendingRequestTable pendingRequests = this.getPendingRequestTable();
+		final ResponseFuture future = new ResponseFuture(request, pendingRequests);
+		
+		long start = System.currentTimeMillis();
+		
+		this.registerPendingRequest(request, future, timeout);
+		
+		timeout-= System.currentTimeMillis() - start;
+		
+		try {
+			future.setTimeoutTask(wheel.schedule(new Runnable() {
+				public void run() {
+					future.timeout();
 				}
-			};
-			
-			this.addPacketListener(pl);
+			}, timeout, TimeUnit.MILLISECONDS));
+		} catch (IllegalStateException e) {
+			// the wheel was stopped by close; frees the frame id
+			future.fail(new XBeeNotConnectedException());
+			throw new XBeeNotConnectedException();
+		}
+		
+		try {
+			this.checkRadioType(request);
+			// outside the lock: only requests to the same destination wait for its window
+			this.acquireCongestionWindow(request);
 			
-			synchronized (container) {
-				try {
-					container.wait(timeout);
-				} catch (InterruptedException e) { }
+			synchronized (sendPacketBlock) {
+				this.writeRequest(request);
 			}
-			
-			if (container.size() == 0) {
-				// we didn't find a matching packet
+		} catch (IOException e) {
+			future.fail(e);
+			throw new XBeeException(e);
+		} catch (RuntimeException e) {
+			// e.g. the request does not match the radio type, or cannot be encoded; frees the frame id
+			future.fail(e);
+			throw e;
+		}
+		
+		return future;
+	}
+	
+	/**
+	 * Like submit, but never fails or blocks because all frame ids are in flight: the request is queued until a frame id 
+	 * is free, then its frame id is set and it is sent (see RequestQueue).  Identify the request by the future, or 
+	 * ResponseFuture.getRequestId, rather than its frame id.  Any number of requests may be in the queue.
+	 * <p/>
+	 * This method is thread-safe
+	 * 
+	 * @param request an AT, remote AT or TX request
+	 * @param timeout milliseconds, including the time spent in the queue
+	 */
+	public ResponseFuture enqueue(XBeeRequest request, int timeout) {
+		// read once: close sets the field to null
+		RequestQueue queue = requestQueue;
+		
+		if (queue == null) {
+			throw new XBeeNotConnectedException();
+		}
+		
+		return queue.enqueue(request, timeout);
+	}
+	
+	/**
+	 * Returns the queue of enqueue, for its size
+	 */
+	public RequestQueue getRequestQueue() {
+		return requestQueue;
+	}
+	
+	/**
+	 * Returns the timing wheel that runs the request timeouts.  Pass it to FragmentTransport to run its timers on 
+	 * the same ticker thread.
+	 */
+	public TimingWheel getTimingWheel() {
+		// read once: close sets the field to null
+		TimingWheel wheel = timingWheel;
+		
+		if (wheel == null) {
+			throw new XBeeNotConnectedException();
+		}
+		
+		return wheel;
+	}
+	
+	/**
+	 * Registers the request in the PendingRequestTable.  With frame id allocation a free frame id is allocated and set on 
+	 * the request, waiting up to timeout if all are in flight; otherwise the frame id of the request is used, waiting up 
+	 * to timeout for it to be released if it is in flight.
+	 * 
+	 * @throws XBeeTimeoutException if no frame id was released within the timeout
+	 */
+	private void registerPendingRequest(XBeeRequest request, PendingRequestTable.PendingRequest pending, int timeout) throws XBeeException {
+		PendingRequestTable pendingRequests = this.getPendingRequestTable();
+		
+		try {
+			if (conf.isFrameIdAllocation()) {
+				int frameId = pendingRequests.register(pending, timeout);
+				
+				if (frameId == 0) {
+					log.warn("All frame ids are in flight; no frame id was released within " + timeout + "ms");
+					throw new XBeeTimeoutException();
+				}
+				
+				request.setFrameId(frameId);
+			} else if (!pendingRequests.register(request.getFrameId(), pending, timeout)) {
+				log.warn("Frame id " + request.getFrameId() + " is in use by another request; it was not released within " + timeout + "ms");
 				throw new XBeeTimeoutException();
 			}
-			
-			return (XBeeResponse) container.get(0);
-		} catch (IOException io) {
-			throw new XBeeException(io);
-		} finally {
-			if (pl != null) {
-				this.removePacketListener(pl);
-			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new XBeeException(e);
+		}
+	}
+	
+	/**
+	 * Same as submit(XBeeRequest, int) with the sendSynchronous timeout defined in XBeeConfiguration
+	 */
+	public ResponseFuture submit(XBeeRequest request) throws XBeeException {
+		return this.submit(request, conf.getSendSynchronousTimeout());
+	}
+	
+	/**
+	 * Returns the requests waiting for a response, indexed by frame id
+	 * 
+	 * @throws XBeeNotConnectedException if no connection was opened
+	 */
+	public PendingRequestTable getPendingRequestTable() {
+		if (parser == null) {
+			throw new XBeeNotConnectedException();
 		}
+		
+		return parser.getPendingRequestTable();
 	}
 	
 	/**
@@ -508,6 +921,13 @@ public class XBee implements IXBee {
 		return this.collectResponses(wait, null);
 	}
 	
+	/**
+	 * Returns the transmit thread, for its counters, or null if XBeeConfiguration.withTransmitThread is not enabled
+	 */
+	public TransmitThread getTransmitThread() {
+		return transmitter;
+	}
+	
 	/**
 	 * Returns the number of packets available in the response queue for immediate consumption
 	 * 
@@ -531,6 +951,42 @@ public class XBee implements IXBee {
 			throw new IllegalStateException("XBee is not connected");
 		}
 		
+		TransmitThread writer = transmitter;
+		
+		if (writer != null) {
+			transmitter = null;
+			writer.shutdown();
+		}
+		
+		RequestQueue queue = requestQueue;
+		
+		if (queue != null) {
+			requestQueue = null;
+			queue.shutdown();
+		}
+		
+		TimingWheel wheel = timingWheel;
+		
+		if (wheel != null) {
+			timingWheel = null;
+			
+			// a shared wheel is stopped by its owner.  Stopped before the pending requests are failed, so a concurrent 
+			// submit either scheduled its timeout and registered before this point, and is failed below, or fails to 
+			// schedule its timeout
+			if (wheel != conf.getTimingWheel()) {
+				wheel.stop();
+			}
+		}
+		
+		// fail the requests waiting for a response; their timeouts never run once the wheel is stopped
+		if (parser != null) {
+			for (PendingRequestTable.PendingRequest pending : parser.getPendingRequestTable().removeAll()) {
+				if (pending instanceof ResponseFuture) {
+					((ResponseFuture) pending).fail(new XBeeNotConnectedException());
+				}
+			}
+		}
+		
 		// shutdown parser thread
 		if (parser != null) {
 			parser.setDone(true);
@@ -571,32 +1027,44 @@ public class XBee implements IXBee {
 		}
 	}
 	
-	// TODO move to its own class
-	private int sequentialFrameId = 0xff;
+	private final AtomicInteger sequentialFrameId = new AtomicInteger(0xff);
 	
 	public int getCurrentFrameId() {
-		// TODO move to separate class (e.g. FrameIdCounter)
-		return sequentialFrameId;
+		return sequentialFrameId.get();
 	}
 	
 	/**
 	 * This is useful for obtaining a frame id when composing your XBeeRequest.
 	 * It will return frame ids in a sequential manner until the maximum is reached (0xff)
-	 * and it flips to 1 and starts over.
-	 * 
-	 * Not Thread-safe
+	 * and it flips to 1 and starts over.  Frame ids of requests waiting for a response (sendSynchronous, submit) 
+	 * are skipped, unless all are in flight.
+	 * <p/>
+	 * Thread-safe, but the frame id is not reserved: two threads that send requests with frame ids from this method 
+	 * have distinct ids unless 255 ids are handed out in between.  Use XBeeConfiguration.withFrameIdAllocation to 
+	 * have sendSynchronous and submit allocate frame ids that are never in flight twice.
 	 * 
 	 * @return
 	 */
 	public int getNextFrameId() {
-		if (sequentialFrameId == 0xff) {
+		int frameId = 0;
+		
+		for (int i = 0; i < FrameIdAllocator.MAX_FRAME_ID; i++) {
+			int current = sequentialFrameId.get();
 			// flip
-			sequentialFrameId = 1;
-		} else {
-			sequentialFrameId++;
+			frameId = current == 0xff ? 1 : current + 1;
+			
+			if (!sequentialFrameId.compareAndSet(current, frameId)) {
+				// another thread took it
+				i--;
+				continue;
+			}
+			
+			if (parser == null || !parser.getPendingRequestTable().isPending(frameId)) {
+				break;
+			}
 		}
 		
-		return sequentialFrameId;
+		return frameId;
 	}
 	
 	/**
@@ -610,7 +1078,7 @@ public class XBee implements IXBee {
 			throw new IllegalArgumentException("invalid frame id");
 		}
 		
-		this.sequentialFrameId = val;
+		this.sequentialFrameId.set(val);
 	}		
 	
 	/**
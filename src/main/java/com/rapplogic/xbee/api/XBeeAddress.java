@@ -36,6 +36,20 @@ public abstract class XBeeAddress {
 	
 	public abstract int[] getAddress();
 	
+	/**
+	 * Packs the address bytes, most significant first, into a long.  16-bit addresses map to 0 - 0xffff.
+	 */
+	public long toLong() {
+		long value = 0;
+		int[] bytes = this.getAddress();
+		
+		for (int i = 0; i < bytes.length; i++) {
+			value = (value << 8) | (bytes[i] & 0xff);
+		}
+		
+		return value;
+	}
+	
 	public String toString() {
 		return ByteUtils.toBase16(this.getAddress());
 	}
@@ -1,11 +1,29 @@
 package com.rapplogic.xbee.api;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class XBeeConfiguration {
 
 	private boolean shutdownHook = false;
 	private boolean startupChecks = false;
 	private int maxQueueSize = 100;
 	private int sendSynchronousTimeout = 5000;
+	private boolean bulkRead = false;
+	private boolean lazyParsing = false;
+	private boolean frameRecovery = false;
+	private TraceSink traceSink = TraceSink.NONE;
+	private WaitStrategy waitStrategy = new BlockingWaitStrategy();
+	private XBeeReactor reactor;
+	private int decodeThreads = 0;
+	private boolean responseRecycling = false;
+	private final List<IoSampleSink> ioSampleSinks = new ArrayList<IoSampleSink>();
+	private int ioSampleRate = 0;
+	private boolean transmitThread = false;
+	private TransmitPacer transmitPacer;
+	private CongestionController congestionController;
+	private boolean frameIdAllocation = false;
+	private TimingWheel timingWheel;
 	private ResponseFilter responseQueueFilter;
 	
 	private final ResponseFilter noRequestResponseQueueFilter = new ResponseFilter() {
@@ -67,6 +85,223 @@ public class XBeeConfiguration {
 		return this;
 	}
 	
+	/**
+	 * Controls how the input stream is read.  When true, all available bytes are read in a single call
+	 * and fed to a FrameDecoder, which may stop mid-frame and resume on the next read.
+	 * When false (default), packets are read from the input stream one byte at a time.
+	 * 
+	 * @param bulkRead
+	 */
+	public XBeeConfiguration withBulkRead(boolean bulkRead) {
+		this.bulkRead = bulkRead;
+		return this;
+	}
+	
+	/**
+	 * When true, the packet parser only verifies framing and checksum and parses the header fields 
+	 * (e.g. source address) of I/O sample and node identification responses.  The body of these responses is 
+	 * parsed from the packet bytes the first time one of its fields is accessed, so responses that are 
+	 * filtered or ignored by listeners are never fully decoded.  A body that fails to parse is not delivered as 
+	 * an ErrorResponse; the accessors of its fields throw XBeeParseException instead.
+	 * Default is false.
+	 * 
+	 * @param lazyParsing
+	 */
+	public XBeeConfiguration withLazyParsing(boolean lazyParsing) {
+		this.lazyParsing = lazyParsing;
+		return this;
+	}
+	
+	/**
+	 * When true, the input stream is decoded with a FrameDecoder in recovery mode (implies bulk read decoding): 
+	 * a frame that is truncated by a start byte, has an implausible length, or has a bad checksum is discarded and 
+	 * decoding resumes at the next start byte, so valid frames directly behind a corrupted one are not lost.
+	 * Discarded frames, and frames with a bad checksum, are delivered as ErrorResponse as in normal mode.
+	 * Default is false.
+	 * 
+	 * @param frameRecovery
+	 */
+	public XBeeConfiguration withFrameRecovery(boolean frameRecovery) {
+		this.frameRecovery = frameRecovery;
+		return this;
+	}
+	
+	/**
+	 * Sets how the input stream thread waits for data.  Default is BlockingWaitStrategy, which waits for the connection
+	 * to notify of new data.  Use YieldingWaitStrategy or BackoffSpinWaitStrategy for lowest latency, or 
+	 * BlockingReadWaitStrategy to block in the read.
+	 * 
+	 * @param waitStrategy
+	 */
+	public XBeeConfiguration withWaitStrategy(WaitStrategy waitStrategy) {
+		if (waitStrategy == null) {
+			throw new IllegalArgumentException("waitStrategy is null");
+		}
+		
+		this.waitStrategy = waitStrategy;
+		return this;
+	}
+	
+	/**
+	 * Serves the receive side of the connection from the reactor thread instead of a dedicated input stream thread.
+	 * The same reactor may be shared by many XBee instances.  Bulk read decoding is always used in this mode and 
+	 * the wait strategy is not used.  Required for connections that implement SelectableXBeeConnection; other 
+	 * connections (e.g. serial) cannot be selected and keep their own input stream thread.
+	 * Default is null (dedicated thread).
+	 * 
+	 * @param reactor
+	 */
+	public XBeeConfiguration withReactor(XBeeReactor reactor) {
+		this.reactor = reactor;
+		return this;
+	}
+	
+	/**
+	 * Enables pipeline mode: the input stream thread (or reactor) only frames and verifies the checksum, and frames are 
+	 * parsed in parallel by decodeThreads threads before dispatch to listeners.  Frames from the same source address are 
+	 * always parsed by the same thread so they are delivered in the order received; there is no ordering across radios.  
+	 * Default is 0 (frames are parsed by the input stream thread).
+	 * 
+	 * @param decodeThreads
+	 */
+	public XBeeConfiguration withDecodeThreads(int decodeThreads) {
+		if (decodeThreads < 0) {
+			throw new IllegalArgumentException("decodeThreads must be >= 0");
+		}
+		
+		this.decodeThreads = decodeThreads;
+		return this;
+	}
+	
+	/**
+	 * Enables recycling mode: common responses (ZNetRxResponse, ZNetRxIoSampleResponse, ZNetTxStatusResponse, AtCommandResponse) 
+	 * are taken from per-type pools and return to the pool when released, so steady state parsing allocates almost nothing.
+	 * A response is released after all listeners have processed it; listeners that keep a response must call 
+	 * XBeeResponse.retain(), and release() when done.  Responses from getResponse and sendSynchronous should be released 
+	 * when done (if not they are garbage collected).  A response must not be used after it is released.
+	 * Implies bulk read decoding.  Default is false.
+	 * 
+	 * @param responseRecycling
+	 */
+	public XBeeConfiguration withResponseRecycling(boolean responseRecycling) {
+		this.responseRecycling = responseRecycling;
+		return this;
+	}
+	
+	/**
+	 * IO sample responses (RxResponseIoSample, ZNetRxIoSampleResponse) add their samples to the sink as they 
+	 * are parsed, stamped with the time received.  Use an IoSampleBatch to collect the samples column-wise, or an 
+	 * IoSampleAggregator to maintain per-pin statistics.  May be called more than once to add several sinks.  
+	 * The responses are still delivered as usual.  Default is no sink.
+	 * 
+	 * @param ioSampleSink
+	 */
+	public XBeeConfiguration withIoSampleSink(IoSampleSink ioSampleSink) {
+		if (ioSampleSink == null) {
+			throw new IllegalArgumentException("ioSampleSink is null");
+		}
+		
+		this.ioSampleSinks.add(ioSampleSink);
+		return this;
+	}
+	
+	/**
+	 * The IO sample rate (IR) of the remote radios, in milliseconds.  ZNet IO packets with multiple samples (IT > 1) 
+	 * use this to derive the time of each sample.  Default is 0 (unknown): all samples of a packet have the same time.
+	 * The rate is not read from the radios (IO packets do not include it), so it must match the IR setting of every 
+	 * remote radio that sends multiple samples per packet.
+	 * 
+	 * @param ioSampleRate
+	 */
+	public XBeeConfiguration withIoSampleRate(int ioSampleRate) {
+		if (ioSampleRate < 0) {
+			throw new IllegalArgumentException("ioSampleRate must be >= 0");
+		}
+		
+		this.ioSampleRate = ioSampleRate;
+		return this;
+	}
+	
+	/**
+	 * When true, requests are written by a single writer thread (TransmitThread).  sendRequest and sendAsynchronous 
+	 * encode the request, queue the packet and return immediately; requests queued together are written with one flush.  
+	 * Since the request is encoded before sendRequest returns, it may be changed and sent again (e.g. setPayload in a 
+	 * loop).  Errors writing to the connection are not thrown to the caller, which has already returned: they are 
+	 * logged and counted (TransmitThread.getFramesFailed).  Use TX status (e.g. XBee.submit) to confirm delivery.  
+	 * Default is false: requests are written by the calling thread.
+	 * 
+	 * @param transmitThread
+	 */
+	public XBeeConfiguration withTransmitThread(boolean transmitThread) {
+		this.transmitThread = transmitThread;
+		return this;
+	}
+	
+	/**
+	 * Paces writes so the radio's serial receive buffer is not overrun (see TransmitPacer).  The pacer is created 
+	 * with the radio's over-the-air throughput and takes the baud rate from the connection when it is a 
+	 * SerialPortConnection.  If the pacer uses flow control and the connection implements 
+	 * TransmitPacer.ClearToSend (e.g. SerialPortConnection), writes also wait for CTS.  Default is null (no pacing).
+	 * 
+	 * @param transmitPacer
+	 */
+	public XBeeConfiguration withTransmitPacer(TransmitPacer transmitPacer) {
+		this.transmitPacer = transmitPacer;
+		return this;
+	}
+	
+	/**
+	 * Limits the unicast transmit requests in flight, per destination and for the network, with windows that adapt 
+	 * to TX status (see CongestionController).  sendRequest blocks while the windows are full.  A controller tracks 
+	 * one radio, so must not be shared by XBee instances.  Default is null (no congestion control).
+	 * 
+	 * @param congestionController
+	 */
+	public XBeeConfiguration withCongestionController(CongestionController congestionController) {
+		this.congestionController = congestionController;
+		return this;
+	}
+	
+	/**
+	 * When true, sendSynchronous and submit allocate the frame id of the request (see FrameIdAllocator) instead of 
+	 * using the frame id set on it, so a frame id is never used by two requests waiting for a response.  If all 255 
+	 * frame ids are in flight the caller waits for one to be released, within the timeout of the request.  
+	 * Default is false.
+	 * 
+	 * @param frameIdAllocation
+	 */
+	public XBeeConfiguration withFrameIdAllocation(boolean frameIdAllocation) {
+		this.frameIdAllocation = frameIdAllocation;
+		return this;
+	}
+	
+	/**
+	 * Sets the timing wheel that runs the request timeouts (submit, enqueue, sendSynchronous), so several XBee 
+	 * instances can share one ticker thread.  The wheel is not stopped when the XBee is closed.  Default is null: 
+	 * each XBee creates its own wheel.
+	 * 
+	 * @param timingWheel
+	 */
+	public XBeeConfiguration withTimingWheel(TimingWheel timingWheel) {
+		this.timingWheel = timingWheel;
+		return this;
+	}
+	
+	/**
+	 * Installs a sink that receives a structured event (field, index, offset, value) for each field byte 
+	 * parsed.  Default is TraceSink.NONE, which costs nothing.  Use this in place of DEBUG logging of the parser.
+	 * 
+	 * @param traceSink
+	 */
+	public XBeeConfiguration withTraceSink(TraceSink traceSink) {
+		if (traceSink == null) {
+			throw new IllegalArgumentException("traceSink is null");
+		}
+		
+		this.traceSink = traceSink;
+		return this;
+	}
+	
 	/**
 	 * Only adds responses that implement NoRequestResponse
 	 * 
@@ -96,4 +331,81 @@ public class XBeeConfiguration {
 	public boolean isShutdownHook() {
 		return shutdownHook;
 	}
+
+	public boolean isBulkRead() {
+		return bulkRead;
+	}
+
+	public boolean isLazyParsing() {
+		return lazyParsing;
+	}
+
+	public TraceSink getTraceSink() {
+		return traceSink;
+	}
+
+	public boolean isFrameRecovery() {
+		return frameRecovery;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	public XBeeReactor getReactor() {
+		return reactor;
+	}
+
+	public int getDecodeThreads() {
+		return decodeThreads;
+	}
+
+	public boolean isResponseRecycling() {
+		return responseRecycling;
+	}
+
+	/**
+	 * Returns the sink, or a sink that adds to each sink if there is more than one, or null if there is none
+	 */
+	public IoSampleSink getIoSampleSink() {
+		if (ioSampleSinks.isEmpty()) {
+			return null;
+		} else if (ioSampleSinks.size() == 1) {
+			return ioSampleSinks.get(0);
+		}
+		
+		final IoSampleSink[] sinks = ioSampleSinks.toArray(new IoSampleSink[ioSampleSinks.size()]);
+		
+		return new IoSampleSink() {
+			public void add(long timestamp, long source, int digitalEnabledMask, int digitalOnMask, int analogEnabledMask, int[] analogValues, int offset) {
+				for (int i = 0; i < sinks.length; i++) {
+					sinks[i].add(timestamp, source, digitalEnabledMask, digitalOnMask, analogEnabledMask, analogValues, offset);
+				}
+			}
+		};
+	}
+
+	public int getIoSampleRate() {
+		return ioSampleRate;
+	}
+
+	public boolean isTransmitThread() {
+		return transmitThread;
+	}
+
+	public TransmitPacer getTransmitPacer() {
+		return transmitPacer;
+	}
+
+	public CongestionController getCongestionController() {
+		return congestionController;
+	}
+
+	public boolean isFrameIdAllocation() {
+		return frameIdAllocation;
+	}
+
+	public TimingWheel getTimingWheel() {
+		return timingWheel;
+	}
 }
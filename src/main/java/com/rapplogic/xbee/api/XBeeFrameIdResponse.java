@@ -39,6 +39,11 @@ public abstract class XBeeFrameIdResponse extends XBeeResponse {
 		this.frameId = frameId;
 	}
 	
+	protected void reset() {
+		frameId = 0;
+		super.reset();
+	}
+	
 	public String toString() {
 		return super.toString() + ",frameId=" + ByteUtils.toBase16(this.frameId);
 	}
@@ -120,7 +120,7 @@ public class XBeePacket {
 		
 		int preEscapeLength = packet.length;
 		
-		// TODO save escaping for the serial out method. this is an unnecessary operation
+		// requests sent by XBee.sendRequest are not packaged here; they are escaped as they are written (XBeeRequest.encodeTo)
 		packet = escapePacket(packet);
 		
 		if (log.isDebugEnabled()) {
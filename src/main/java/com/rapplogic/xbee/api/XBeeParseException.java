@@ -26,4 +26,8 @@ public class XBeeParseException extends RuntimeException {
 	public XBeeParseException(String s) {
 		super(s);
 	}
+	
+	public XBeeParseException(String s, Throwable cause) {
+		super(s, cause);
+	}
 }
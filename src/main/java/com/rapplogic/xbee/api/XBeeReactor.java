@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+import com.rapplogic.xbee.SelectableXBeeConnection;
+import com.rapplogic.xbee.XBeeConnection;
+
+/**
+ * Serves the receive side of any number of XBee connections from a single thread, instead of a thread per XBee.
+ * Assign a reactor to an XBee with XBeeConfiguration.withReactor before opening the XBee; the same reactor 
+ * may be used by many XBee instances.  Create a few reactors to spread the load of a large number of radios.
+ * <p/>
+ * Only connections that implement SelectableXBeeConnection (e.g. NioSocketXBeeConnection) are served by the reactor: 
+ * they are registered with a NIO selector and read when data arrives, so an idle reactor does not use any CPU.  Other 
+ * connections (e.g. serial) cannot be selected, so an XBee with such a connection keeps its own InputStreamThread, 
+ * blocked in a read, even if a reactor is configured.
+ * <p/>
+ * Each XBee keeps its own frame decoder, response queue and listener dispatch; the reactor only reads and decodes.
+ * Since decoding and parsing happen on the reactor thread, a slow connection delays the others only by the time 
+ * taken to parse its packets.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class XBeeReactor implements Runnable {
+
+	private final static Logger log = Logger.getLogger(XBeeReactor.class);
+	
+	// size of the buffer used for channel reads
+	private final static int READ_BUFFER_SIZE = 1024;
+	
+	private final Selector selector;
+	private final Thread thread;
+	private volatile boolean done = false;
+	
+	private final Queue<InputStreamThread> registrations = new ConcurrentLinkedQueue<InputStreamThread>();
+	private final Queue<InputStreamThread> cancellations = new ConcurrentLinkedQueue<InputStreamThread>();
+	
+	// only accessed by the reactor thread
+	private final List<InputStreamThread> selected = new ArrayList<InputStreamThread>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	
+	public XBeeReactor() throws IOException {
+		this("XBeeReactor");
+	}
+	
+	/**
+	 * Creates and starts a reactor
+	 * 
+	 * @param name name of the reactor thread
+	 * @throws IOException if the selector cannot be opened
+	 */
+	public XBeeReactor(String name) throws IOException {
+		this.selector = Selector.open();
+		
+		thread = new Thread(this);
+		thread.setName(name);
+		thread.start();
+	}
+	
+	/**
+	 * Called by InputStreamThread on creation, for selectable connections only
+	 */
+	void register(InputStreamThread input) {
+		if (done) {
+			throw new IllegalStateException("Reactor is closed");
+		}
+		
+		registrations.add(input);
+		selector.wakeup();
+	}
+	
+	/**
+	 * Called when the XBee is closed.  The reactor stops reading the connection and shuts down the InputStreamThread
+	 */
+	void unregister(InputStreamThread input) {
+		cancellations.add(input);
+		selector.wakeup();
+	}
+	
+	/**
+	 * Stops the reactor and shuts down all connections it serves
+	 */
+	public void close() {
+		done = true;
+		selector.wakeup();
+	}
+	
+	public void run() {
+		try {
+			while (!done) {
+				this.processRegistrations();
+				
+				selector.select();
+				
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					
+					if (key.isValid() && key.isReadable()) {
+						this.read(key);
+					}
+				}
+			}
+		} catch (InterruptedException ie) {
+			log.info("Reactor thread was interrupted");
+		} catch (Throwable t) {
+			log.error("Error in reactor thread.. exiting", t);
+		} finally {
+			done = true;
+			
+			for (InputStreamThread input : selected) {
+				input.shutdown();
+			}
+			
+			for (InputStreamThread input : registrations) {
+				input.shutdown();
+			}
+			
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.warn("Failed to close selector", e);
+			}
+		}
+		
+		log.info("Reactor thread is exiting");
+	}
+	
+	private void processRegistrations() {
+		InputStreamThread input;
+		
+		while ((input = registrations.poll()) != null) {
+			SelectableXBeeConnection connection = (SelectableXBeeConnection) input.getXBeeConnection();
+			SelectableChannel channel = connection.getChannel();
+			
+			try {
+				if (!(channel instanceof ReadableByteChannel)) {
+					throw new IOException("Channel is not readable: " + channel);
+				}
+				
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, input);
+				selected.add(input);
+			} catch (IOException e) {
+				log.error("Failed to register connection " + connection + " with selector", e);
+				input.shutdown();
+			}
+		}
+		
+		while ((input = cancellations.poll()) != null) {
+			SelectionKey key = ((SelectableXBeeConnection) input.getXBeeConnection()).getChannel().keyFor(selector);
+			
+			if (key != null) {
+				key.cancel();
+			}
+			
+			selected.remove(input);
+			input.shutdown();
+		}
+	}
+	
+	private void read(SelectionKey key) throws InterruptedException {
+		InputStreamThread input = (InputStreamThread) key.attachment();
+		
+		try {
+			readBuffer.clear();
+			
+			int read = ((ReadableByteChannel) key.channel()).read(readBuffer);
+			
+			if (read < 0) {
+				throw new IOException("End of stream");
+			}
+			
+			input.decode(readBuffer.array(), 0, read);
+		} catch (IOException e) {
+			log.error("IOException reading from connection " + input.getXBeeConnection() + ".. closing", e);
+			key.cancel();
+			selected.remove(input);
+			input.shutdown();
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			log.error("Error while parsing packet:", e);
+		}
+	}
+	
+	public String toString() {
+		return thread.getName();
+	}
+}
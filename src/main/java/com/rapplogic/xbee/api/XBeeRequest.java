@@ -20,6 +20,9 @@
 package com.rapplogic.xbee.api;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
@@ -38,6 +41,9 @@ public abstract class XBeeRequest implements Serializable {
 	// XBee will not generate a TX Status Packet if this frame id sent
 	public static final int NO_RESPONSE_FRAME_ID = 0;
 	
+	// per request class, true if writeFrameData writes the frame data of getFrameData (see isFrameDataWriter)
+	private final static ConcurrentMap<Class<?>, Boolean> frameDataWriters = new ConcurrentHashMap<Class<?>, Boolean>();
+	
 	private ApiId apiId;
 	private int frameId;
 	
@@ -60,6 +66,118 @@ public abstract class XBeeRequest implements Serializable {
 	}
 
 	public abstract int[] getFrameData();
+	
+	/**
+	 * Returns the length of the frame data: API ID, frame ID and the API specific fields.
+	 * Subclasses that override writeFrameData must also override this method.
+	 */
+	public int getFrameDataLength() {
+		return this.getFrameData().length;
+	}
+	
+	/**
+	 * Writes the frame data.  The default implementation writes getFrameData()
+	 */
+	protected void writeFrameData(FrameEncoder out) {
+		out.writeFrameData(this.getFrameData());
+	}
+	
+	/**
+	 * Returns true if writeFrameData may be used in place of getFrameData.  This is false when a subclass overrides 
+	 * getFrameData (or ZNetTxRequest.getFrameDataAsIntArrayOutputStream) below the class that implements 
+	 * writeFrameData, in which case the packet is encoded from getFrameData, as before writeFrameData existed.
+	 */
+	protected final boolean isFrameDataWriter() {
+		Boolean writer = frameDataWriters.get(this.getClass());
+		
+		if (writer == null) {
+			writer = isFrameDataWriter(this.getClass());
+			frameDataWriters.put(this.getClass(), writer);
+		}
+		
+		return writer;
+	}
+	
+	private static boolean isFrameDataWriter(Class<?> clazz) {
+		try {
+			for (Class<?> c = clazz; c != XBeeRequest.class; c = c.getSuperclass()) {
+				if (declares(c, "writeFrameData", FrameEncoder.class)) {
+					return true;
+				}
+				
+				if (declares(c, "getFrameData") || declares(c, "getFrameDataAsIntArrayOutputStream")) {
+					return false;
+				}
+			}
+		} catch (SecurityException e) {
+			// can't tell; getFrameData is always correct
+		}
+		
+		return false;
+	}
+	
+	private static boolean declares(Class<?> clazz, String name, Class<?>... parameterTypes) {
+		try {
+			clazz.getDeclaredMethod(name, parameterTypes);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	private void writePacket(FrameEncoder out) {
+		if (this.isFrameDataWriter()) {
+			this.writeFrameData(out);
+		} else {
+			out.writeFrameData(this.getFrameData());
+		}
+		
+		out.endPacket();
+	}
+	
+	/**
+	 * Returns the frame data as written by writeFrameData.  Subclasses that override writeFrameData 
+	 * may implement getFrameData with this method.
+	 */
+	protected final int[] toFrameData() {
+		int[] frameData = new int[this.getFrameDataLength()];
+		FrameEncoder out = new FrameEncoder(frameData);
+		this.writeFrameData(out);
+		out.checkLength();
+		return frameData;
+	}
+	
+	/**
+	 * Encodes this request as an escaped packet (start byte, length, frame data and checksum) into buffer, 
+	 * starting at the buffer position.  The checksum is computed and the bytes are escaped as they are 
+	 * written, so no intermediate arrays are created.  
+	 * The buffer must have at least FrameEncoder.getMaxPacketLength(getFrameDataLength()) bytes remaining, otherwise 
+	 * a BufferOverflowException may be thrown.
+	 * 
+	 * @param buffer
+	 * @return the number of bytes written
+	 */
+	public int encodeTo(ByteBuffer buffer) {
+		int start = buffer.position();
+		
+		this.writePacket(new FrameEncoder(this, buffer));
+		
+		return buffer.position() - start;
+	}
+	
+	/**
+	 * Same as encodeTo but encodes into reuse if it can hold the packet, otherwise into a new array.  Returns the 
+	 * packet, from position 0 to the limit.  The array is sized as the packet is started, so getFrameData of a 
+	 * request that only implements getFrameData is called once.
+	 * 
+	 * @param reuse may be null
+	 */
+	ByteBuffer encode(byte[] reuse) {
+		FrameEncoder out = new FrameEncoder(this, reuse);
+		this.writePacket(out);
+		
+		return out.getPacket();
+	}
 
 	public ApiId getApiId() {
 		return apiId;
@@ -22,8 +22,11 @@ package com.rapplogic.xbee.api;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import com.rapplogic.xbee.util.ByteUtils;
+import com.rapplogic.xbee.util.IIntInputStream;
+import com.rapplogic.xbee.util.IntArrayInputStream;
 
 /**
  * The super class of all XBee Receive packets
@@ -44,12 +47,30 @@ public abstract class XBeeResponse implements Serializable {
 	private int[] rawPacketBytes;
 	private int[] processedPacketBytes;
 	
+	// primitive copies of the packet bytes, set by ByteBufferPacketParser.
+	// the int arrays are only created if requested
+	private byte[] rawPacketByteArray;
+	private byte[] processedPacketByteArray;
+	
 	private ApiId apiId;
 	private int checksum;
 
 	private XBeePacketLength length;
 	
 	private boolean error = false;
+	
+	// index of the body in the processed packet bytes, if parsing of the body was deferred (lazy parsing); -1 otherwise.
+	// cleared once the body is parsed, which publishes the body fields
+	private volatile int deferredBodyIndex = -1;
+	// true while the thread holding the lock parses the deferred body; guarded by this
+	private transient boolean parsingDeferredBody;
+	
+	private final static AtomicIntegerFieldUpdater<XBeeResponse> referencesUpdater = AtomicIntegerFieldUpdater.newUpdater(XBeeResponse.class, "references");
+	
+	// set if this response was taken from a ResponsePool (recycling mode)
+	private transient ResponsePool pool;
+	private transient int poolApiId;
+	private transient volatile int references;
 		
 	public XBeeResponse() {
 
@@ -110,6 +131,10 @@ public abstract class XBeeResponse implements Serializable {
 	 * @return
 	 */
 	public int[] getRawPacketBytes() {
+		if (rawPacketBytes == null && rawPacketByteArray != null) {
+			rawPacketBytes = toIntArray(rawPacketByteArray);
+		}
+		
 		return rawPacketBytes;		
 	}
 	
@@ -118,12 +143,127 @@ public abstract class XBeeResponse implements Serializable {
 	 * @return
 	 */
 	public int[] getProcessedPacketBytes() {
+		if (processedPacketBytes == null && processedPacketByteArray != null) {
+			processedPacketBytes = toIntArray(processedPacketByteArray);
+		}
+		
 		return processedPacketBytes;
 	}
 
 	public void setRawPacketBytes(int[] packetBytes) {
 		this.rawPacketBytes = packetBytes;
 		this.processedPacketBytes = XBeePacket.unEscapePacket(packetBytes);
+		this.rawPacketByteArray = null;
+		this.processedPacketByteArray = null;
+	}
+	
+	/**
+	 * Same as getRawPacketBytes but returns the bytes as a byte array, if the packet was parsed by 
+	 * the ByteBufferPacketParser; null otherwise.
+	 * 
+	 * @return
+	 */
+	public byte[] getRawPacketByteArray() {
+		return rawPacketByteArray;
+	}
+
+	/**
+	 * Same as getProcessedPacketBytes but returns the bytes as a byte array, if the packet was parsed by 
+	 * the ByteBufferPacketParser; null otherwise.
+	 * 
+	 * @return
+	 */
+	public byte[] getProcessedPacketByteArray() {
+		return processedPacketByteArray;
+	}
+	
+	/**
+	 * Sets the raw (escaped) and processed (un-escaped) packet bytes, not including the start byte.
+	 * The int arrays returned by getRawPacketBytes and getProcessedPacketBytes are created on first access.
+	 * 
+	 * @param raw
+	 * @param processed
+	 */
+	public void setPacketBytes(byte[] raw, byte[] processed) {
+		this.rawPacketByteArray = raw;
+		this.processedPacketByteArray = processed;
+		this.rawPacketBytes = null;
+		this.processedPacketBytes = null;
+	}
+	
+	private static int[] toIntArray(byte[] bytes) {
+		int[] ints = new int[bytes.length];
+		
+		for (int i = 0; i < bytes.length; i++) {
+			ints[i] = bytes[i] & 0xff;
+		}
+		
+		return ints;
+	}
+	
+	/**
+	 * In recycling mode (XBeeConfiguration.withResponseRecycling), adds a reference to this response so that it is 
+	 * not recycled until release() is called.  Listeners must call this if they keep the response after processResponse returns.
+	 * Does nothing if the response is not pooled.
+	 * 
+	 * @return this response
+	 */
+	public XBeeResponse retain() {
+		if (pool != null) {
+			referencesUpdater.incrementAndGet(this);
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * In recycling mode, releases a reference to this response; the response returns to its pool when the last reference 
+	 * is released and must not be used after that.  Responses taken from the response queue (getResponse) or returned 
+	 * by sendSynchronous hold a reference that should be released when done with the response; if not, the response 
+	 * is simply garbage collected.  Does nothing if the response is not pooled.
+	 */
+	public void release() {
+		if (pool == null) {
+			return;
+		}
+		
+		int count = referencesUpdater.decrementAndGet(this);
+		
+		if (count == 0) {
+			pool.recycle(this, poolApiId);
+		} else if (count < 0) {
+			throw new IllegalStateException("Response was released more times than it was retained");
+		}
+	}
+	
+	/**
+	 * Called by ResponsePool when the response is taken from the pool, with one reference
+	 */
+	void setPool(ResponsePool pool, int apiId) {
+		this.pool = pool;
+		this.poolApiId = apiId;
+		this.references = 1;
+	}
+	
+	/**
+	 * Returns true if this type may be recycled.  Types that return true must override reset() to clear all their fields.
+	 */
+	protected boolean isRecyclable() {
+		return false;
+	}
+	
+	/**
+	 * Clears this response before it is reused.  The packet byte arrays are kept so they may be reused 
+	 * by the parser.  Recyclable subclasses must override to clear their own fields, and call super.reset()
+	 */
+	protected void reset() {
+		apiId = null;
+		checksum = 0;
+		length = null;
+		error = false;
+		deferredBodyIndex = -1;
+		rawPacketBytes = null;
+		processedPacketBytes = null;
 	}
 	
 	/**
@@ -133,6 +273,97 @@ public abstract class XBeeResponse implements Serializable {
 		
 	}
 	
+	/**
+	 * Implemented by responses that support lazy parsing
+	 */
+	public interface DeferredBody {
+		/**
+		 * For internal use only.  Parses the body from the stream, which starts with the first byte of the body.
+		 * 
+		 * @param in
+		 * @throws IOException
+		 */
+		void parseBody(IIntInputStream in) throws IOException;
+	}
+	
+	/**
+	 * Called by responses that support lazy parsing, in place of parsing the body.  Skips the remaining bytes
+	 * of the packet (except the checksum) and records where the body starts so it can be parsed by 
+	 * DeferredBody.parseBody when first accessed.
+	 * 
+	 * @param parser
+	 * @throws IOException
+	 * @throws IllegalStateException if this response does not implement DeferredBody
+	 */
+	protected void deferBody(IPacketParser parser) throws IOException {
+		if (!(this instanceof DeferredBody)) {
+			throw new IllegalStateException(this.getClass().getName() + " does not support lazy parsing");
+		}
+		
+		this.deferredBodyIndex = parser.getBytesRead();
+		getInternalParser(parser).skipRemainingBytes();
+	}
+	
+	/**
+	 * Returns the parser as an InternalPacketParser, adapting IPacketParser implementations other than 
+	 * PacketParser and ByteBufferPacketParser
+	 * 
+	 * @param parser
+	 * @return
+	 */
+	protected static InternalPacketParser getInternalParser(IPacketParser parser) {
+		if (parser instanceof InternalPacketParser) {
+			return (InternalPacketParser) parser;
+		}
+		
+		return new PacketParserAdapter(parser);
+	}
+	
+	/**
+	 * Returns true if the body has not been parsed yet
+	 * 
+	 * @return
+	 */
+	public boolean isBodyDeferred() {
+		return deferredBodyIndex >= 0;
+	}
+	
+	/**
+	 * Parses the body, if it was deferred.  Responses that support lazy parsing must call this method
+	 * from each accessor of a body field.
+	 * <p/>
+	 * Since the body is parsed after the packet was delivered, a body that cannot be parsed does not result in 
+	 * an ErrorResponse: instead every accessor of a body field throws XBeeParseException.
+	 * 
+	 * @throws XBeeParseException if the body cannot be parsed
+	 */
+	protected final void parseDeferredBody() {
+		if (deferredBodyIndex < 0) {
+			return;
+		}
+		
+		synchronized (this) {
+			int index = deferredBodyIndex;
+			
+			// parseBody calls back into accessors
+			if (index < 0 || parsingDeferredBody) {
+				return;
+			}
+			
+			parsingDeferredBody = true;
+			
+			try {
+				((DeferredBody) this).parseBody(new IntArrayInputStream(this.getProcessedPacketBytes(), index));
+				// only now may other threads read the body fields without the lock
+				deferredBodyIndex = -1;
+			} catch (Exception e) {
+				throw new XBeeParseException("Failed to parse deferred body of " + this.getApiId() + ": " + e.getMessage(), e);
+			} finally {
+				parsingDeferredBody = false;
+			}
+		}
+	}
+	
 	/**
 	 * All subclasses must implement to parse the packet from the input stream.
 	 * The subclass must parse all bytes in the packet starting after the API_ID, and
@@ -152,7 +383,7 @@ public abstract class XBeeResponse implements Serializable {
 		result = prime * result + checksum;
 		result = prime * result + (error ? 1231 : 1237);
 		result = prime * result + ((length == null) ? 0 : length.hashCode());
-		result = prime * result + Arrays.hashCode(rawPacketBytes);
+		result = prime * result + Arrays.hashCode(this.getRawPacketBytes());
 		return result;
 	}
 
@@ -179,7 +410,7 @@ public abstract class XBeeResponse implements Serializable {
 				return false;
 		} else if (!length.equals(other.length))
 			return false;
-		if (!Arrays.equals(rawPacketBytes, other.rawPacketBytes))
+		if (!Arrays.equals(this.getRawPacketBytes(), other.getRawPacketBytes()))
 			return false;
 		return true;
 	}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2008 Andrew Rapp. All rights reserved.
+ *
+ * This file is part of XBee-API.
+ *
+ * XBee-API is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * XBee-API is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with XBee-API.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.rapplogic.xbee.api;
+
+import java.io.IOException;
+
+import com.rapplogic.xbee.XBeeConnection;
+
+/**
+ * Polls the input stream, calling Thread.yield() between polls.  Low latency, but keeps a core busy 
+ * when other threads are not runnable.
+ * <p/>
+ * @author andrew
+ *
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+	public int awaitData(XBeeConnection connection) throws IOException, InterruptedException {
+		int available;
+		
+		while ((available = connection.getInputStream().available()) == 0) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			
+			Thread.yield();
+		}
+		
+		return available;
+	}
+}
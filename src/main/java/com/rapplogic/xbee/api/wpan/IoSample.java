@@ -19,8 +19,6 @@
 
 package com.rapplogic.xbee.api.wpan;
 
-import com.rapplogic.xbee.util.ByteUtils;
-
 /**
  * Series 1 XBee.  Represents an I/O Sample, sent from a remote radio.
  * Each I/O packet (RxResponseIoSample) may contain one for more IoSample instances.
@@ -37,28 +35,59 @@ public class IoSample {
 	
 	private RxResponseIoSample parent;
 	
-	private Integer dioMsb;
-	private Integer dioLsb;
-	private Integer[] analog = new Integer[6];
+	// values are kept as primitives: dio is (DIO MSB << 8) + DIO LSB, so bit n is pin Dn, or -1 if the sample has no digital data
+	private int dio = -1;
+	private final int[] analog = new int[6];
+	// bit n is set if analog[n] has a value
+	private int analogMask;
 
 	public IoSample(RxResponseIoSample parent) {
 		this.parent = parent;
 	}
 
+	/**
+	 * Sets both DIO bytes
+	 */
+	public void setDio(int dioMsb, int dioLsb) {
+		this.dio = ((dioMsb & 0xff) << 8) + (dioLsb & 0xff);
+	}
+	
 	public void setDioMsb(Integer dioMsb) {
-		this.dioMsb = dioMsb;
+		if (dioMsb == null) {
+			this.dio = -1;
+		} else {
+			this.setDio(dioMsb, dio == -1 ? 0 : dio);
+		}
 	}
 
 	public void setDioLsb(Integer dioLsb) {
-		this.dioLsb = dioLsb;
+		if (dioLsb == null) {
+			this.dio = -1;
+		} else {
+			this.setDio(dio == -1 ? 0 : dio >> 8, dioLsb);
+		}
 	}
 	
 	public Integer getDioMsb() {
-		return dioMsb;
+		return dio == -1 ? null : Integer.valueOf(dio >> 8);
 	}
 
 	public Integer getDioLsb() {
-		return dioLsb;
+		return dio == -1 ? null : Integer.valueOf(dio & 0xff);
+	}
+	
+	/**
+	 * Returns the pins that are high, bit n is pin Dn.  Only pins that are enabled for digital input are included.
+	 */
+	public int getDigitalOnMask() {
+		return dio == -1 ? 0 : dio & parent.getDigitalEnabledMask();
+	}
+	
+	/**
+	 * Returns the channels that have an analog value in this sample, bit n is pin An
+	 */
+	public int getAnalogEnabledMask() {
+		return analogMask & parent.getAnalogEnabledMask();
 	}
 	
 	/**
@@ -68,19 +97,51 @@ public class IoSample {
 	 * @return
 	 */
 	public Integer getAnalog(int pin) {
-		if (parent.isAnalogEnabled(pin)) {
-			return analog[pin];	
+		if (parent.isAnalogEnabled(pin) && (analogMask & (1 << pin)) != 0) {
+			return Integer.valueOf(analog[pin]);	
 		}
 		
 		return null;
 	}
 	
+	/**
+	 * Same as getAnalog(pin) but does not box the value.  Returns -1 if pin is not configured for Analog input.
+	 */
+	public int getAnalogValue(int pin) {
+		if (parent.isAnalogEnabled(pin) && (analogMask & (1 << pin)) != 0) {
+			return analog[pin];	
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Sets the 10-bit analog value of the pin
+	 */
+	public void setAnalog(int pin, int value) {
+		analog[pin] = value;
+		analogMask|= 1 << pin;
+	}
+	
+	private void setAnalog(int pin, Integer value) {
+		if (value == null) {
+			analogMask&= ~(1 << pin);
+		} else {
+			this.setAnalog(pin, value.intValue());
+		}
+	}
+	
+	// indexed by pin, for IoSampleSink.add
+	int[] getAnalogValues() {
+		return analog;
+	}
+	
 	public Integer getAnalog0() {
 		return this.getAnalog(0);
 	}
 
 	public void setAnalog0(Integer analog0) {
-		analog[0] = analog0;
+		this.setAnalog(0, analog0);
 	}
 
 	/**
@@ -94,7 +155,7 @@ public class IoSample {
 	}
 
 	public void setAnalog1(Integer analog1) {
-		analog[1] = analog1;
+		this.setAnalog(1, analog1);
 	}
 
 	/**
@@ -108,7 +169,7 @@ public class IoSample {
 	}
 
 	public void setAnalog2(Integer analog2) {
-		analog[2] = analog2;
+		this.setAnalog(2, analog2);
 	}
 
 	/**
@@ -122,7 +183,7 @@ public class IoSample {
 	}
 
 	public void setAnalog3(Integer analog3) {
-		analog[3] = analog3;
+		this.setAnalog(3, analog3);
 	}
 
 	/**
@@ -136,7 +197,7 @@ public class IoSample {
 	}
 
 	public void setAnalog4(Integer analog4) {
-		analog[4] = analog4;
+		this.setAnalog(4, analog4);
 	}
 
 	/**
@@ -150,7 +211,7 @@ public class IoSample {
 	}
 
 	public void setAnalog5(Integer analog5) {
-		analog[5] = analog5;
+		this.setAnalog(5, analog5);
 	}
 
 	/**
@@ -165,12 +226,14 @@ public class IoSample {
 			return null;
 		}
 		
-		if (pin >= 0 && pin <= 7) {
-			return ByteUtils.getBit(dioLsb, pin + 1);
-		} else {
-			// pin 8
-			return ByteUtils.getBit(dioMsb, 1);		
-		}
+		return Boolean.valueOf(this.isDigitalHigh(pin));
+	}
+	
+	/**
+	 * Same as isDigitalOn(pin) but returns false, instead of null, if pin is not configured for Digital input
+	 */
+	public boolean isDigitalHigh(int pin) {
+		return (this.getDigitalOnMask() & (1 << pin)) != 0;
 	}
 
 	/**
@@ -22,6 +22,7 @@ package com.rapplogic.xbee.api.wpan;
 import java.io.IOException;
 
 import com.rapplogic.xbee.api.IPacketParser;
+import com.rapplogic.xbee.api.InternalPacketParser;
 import com.rapplogic.xbee.util.ByteUtils;
 
 public class RxResponse extends RxBaseResponse {
@@ -41,12 +42,13 @@ public class RxResponse extends RxBaseResponse {
 	}
 
 	public void parse(IPacketParser parser) throws IOException {		
+		InternalPacketParser in = getInternalParser(parser);
 		int[] payload = new int[parser.getLength().getLength() - parser.getFrameDataBytesRead()];
 		
 		int bytesRead = parser.getFrameDataBytesRead();
 		
 		for (int i = 0; i < parser.getLength().getLength() - bytesRead; i++) {
-			payload[i] = parser.read("Payload byte " + i);
+			payload[i] = in.read("Payload byte", i);
 			//log.debug("rx data payload [" + i + "] " + payload[i]);
 		}				
 		
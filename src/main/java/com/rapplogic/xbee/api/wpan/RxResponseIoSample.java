@@ -25,7 +25,11 @@ import org.apache.log4j.Logger;
 
 import com.rapplogic.xbee.api.ApiId;
 import com.rapplogic.xbee.api.IPacketParser;
+import com.rapplogic.xbee.api.InternalPacketParser;
+import com.rapplogic.xbee.api.IoSampleBatch;
+import com.rapplogic.xbee.api.IoSampleSink;
 import com.rapplogic.xbee.api.NoRequestResponse;
+import com.rapplogic.xbee.api.XBeeResponse;
 import com.rapplogic.xbee.util.ByteUtils;
 import com.rapplogic.xbee.util.IIntInputStream;
 
@@ -40,7 +44,7 @@ import com.rapplogic.xbee.util.IIntInputStream;
  * @author andrew
  *
  */
-public class RxResponseIoSample extends RxBaseResponse implements NoRequestResponse {
+public class RxResponseIoSample extends RxBaseResponse implements NoRequestResponse, XBeeResponse.DeferredBody {
 	
 	private final static Logger log = Logger.getLogger(RxResponseIoSample.class);
 	
@@ -66,6 +70,34 @@ public class RxResponseIoSample extends RxBaseResponse implements NoRequestRespo
 		
 		super.parseBase(parser);
 
+		InternalPacketParser in = getInternalParser(parser);
+		IoSampleSink sink = in.getIoSampleSink();
+		
+		if (in.isLazyParsing() && sink == null) {
+			this.deferBody(parser);
+		} else {
+			this.parseBody(in);
+			
+			if (sink != null) {
+				this.addTo(sink, System.currentTimeMillis());
+			}
+		}
+	}
+	
+	/**
+	 * Adds each sample of this packet to the sink
+	 */
+	public void addTo(IoSampleSink sink, long timestamp) {
+		IoSample[] samples = this.getSamples();
+		long source = IoSampleBatch.toLong(this.getSourceAddress());
+		int digitalEnabledMask = this.getDigitalEnabledMask();
+		
+		for (int i = 0; i < samples.length; i++) {
+			sink.add(timestamp, source, digitalEnabledMask, samples[i].getDigitalOnMask(), samples[i].getAnalogEnabledMask(), samples[i].getAnalogValues(), 0);
+		}
+	}
+	
+	public void parseBody(IIntInputStream parser) throws IOException {
 		log.debug("this is a I/O sample!");
 		// first byte is # of samples
 		int sampleSize = parser.read("# I/O Samples");
@@ -76,19 +108,21 @@ public class RxResponseIoSample extends RxBaseResponse implements NoRequestRespo
 		// channel indicator 1
 		this.setChannelIndicator1(parser.read("Channel Indicator 1"));
 		
-		log.debug("channel indicator 1 is " + ByteUtils.formatByte(this.getChannelIndicator1()));
+		if (log.isDebugEnabled()) {
+			log.debug("channel indicator 1 is " + ByteUtils.formatByte(this.getChannelIndicator1()));
+		}
 		
 		// channel indicator 2 (dio)
 		this.setChannelIndicator2(parser.read("Channel Indicator 2"));
 		
-		log.debug("channel indicator 2 is " + ByteUtils.formatByte(this.getChannelIndicator2()));	
+		if (log.isDebugEnabled()) {
+			log.debug("channel indicator 2 is " + ByteUtils.formatByte(this.getChannelIndicator2()));
+		}
 		
 		// collect each sample
 		for (int i = 0; i < this.getSamples().length; i++) {
 			
-			log.debug("parsing sample " + (i + 1));
-			
-			IoSample sample = parseIoSample((IIntInputStream)parser);
+			IoSample sample = parseIoSample(parser);
 			
 			// attach sample to parent
 			this.getSamples()[i] = sample;
@@ -106,8 +140,8 @@ public class RxResponseIoSample extends RxBaseResponse implements NoRequestRespo
 			
 			log.debug("Digital I/O was received");
 			
-			sample.setDioMsb(parser.read("DIO MSB"));
-			sample.setDioLsb(parser.read("DIO LSB"));
+			int dioMsb = parser.read("DIO MSB");
+			sample.setDio(dioMsb, parser.read("DIO LSB"));
 		}
 		
 		// ADC is active if any of bits 2-7 are on
@@ -124,50 +158,55 @@ public class RxResponseIoSample extends RxBaseResponse implements NoRequestRespo
 			// Analog inputs A0-A5 are bits 2-7 of the adcHeader
 			
 			if (this.isA0Enabled()) {
-				sample.setAnalog0(ByteUtils.parse10BitAnalog(parser, analog));
+				sample.setAnalog(0, ByteUtils.parse10BitAnalog(parser, analog));
 				analog++;				
 			}
 
 			if (this.isA1Enabled()) {
-				sample.setAnalog1(ByteUtils.parse10BitAnalog(parser, analog));
+				sample.setAnalog(1, ByteUtils.parse10BitAnalog(parser, analog));
 				analog++;
 			}
 
 			if (this.isA2Enabled()) {
-				sample.setAnalog2(ByteUtils.parse10BitAnalog(parser, analog));
+				sample.setAnalog(2, ByteUtils.parse10BitAnalog(parser, analog));
 				analog++;
 			}
 
 			if (this.isA3Enabled()) {
-				sample.setAnalog3(ByteUtils.parse10BitAnalog(parser, analog));
+				sample.setAnalog(3, ByteUtils.parse10BitAnalog(parser, analog));
 				analog++;
 			}
 
 			if (this.isA4Enabled()) {
-				sample.setAnalog4(ByteUtils.parse10BitAnalog(parser, analog));
+				sample.setAnalog(4, ByteUtils.parse10BitAnalog(parser, analog));
 				analog++;
 			}
 			
 			if (this.isA5Enabled()) {
-				sample.setAnalog5(ByteUtils.parse10BitAnalog(parser, analog));
+				sample.setAnalog(5, ByteUtils.parse10BitAnalog(parser, analog));
 				analog++;
 			}
 			
-			log.debug("There are " + analog + " analog inputs turned on");
+			if (log.isDebugEnabled()) {
+				log.debug("There are " + analog + " analog inputs turned on");
+			}
 		}
 		
 		return sample;
 	}
 	
 	public IoSample[] getSamples() {
+		this.parseDeferredBody();
 		return samples;
 	}
 
 	public void setSamples(IoSample[] samples) {
+		this.parseDeferredBody();
 		this.samples = samples;
 	}
 	
 	public boolean isDigitalEnabled(int pin) {
+		this.parseDeferredBody();
 		if (pin >= 0 && pin <= 7) { 
 			return ByteUtils.getBit(channelIndicator2, pin + 1);
 		} else if (pin == 8) {
@@ -177,43 +216,69 @@ public class RxResponseIoSample extends RxBaseResponse implements NoRequestRespo
 		}
 	}
 
+	/**
+	 * Returns the pins configured for digital input, bit n is pin Dn
+	 */
+	public int getDigitalEnabledMask() {
+		this.parseDeferredBody();
+		return channelIndicator2 + ((channelIndicator1 & DIO_CHANNEL1) << 8);
+	}
+	
+	/**
+	 * Returns the pins configured for analog input, bit n is pin An
+	 */
+	public int getAnalogEnabledMask() {
+		this.parseDeferredBody();
+		return (channelIndicator1 & ADC_CHANNEL1) >> 1;
+	}
+	
 	public boolean isD0Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator2, 1);
 	}
 
 	public boolean isD1Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator2, 2);
 	}
 
 	public boolean isD2Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator2, 3);
 	}
 
 	public boolean isD3Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator2, 4);
 	}
 	
 	public boolean isD4Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator2, 5);
 	}
 	
 	public boolean isD5Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator2, 6);
 	}
 	
 	public boolean isD6Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator2, 7);
 	}
 	
 	public boolean isD7Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator2, 8);
 	}	
 
 	public boolean isD8Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator1, 1);
 	}	
 	
 	public boolean isAnalogEnabled(int pin) {
+		this.parseDeferredBody();
 		if (pin >= 0 && pin <= 5) {
 			return  ByteUtils.getBit(channelIndicator1, pin + 2);
 		} else {
@@ -222,42 +287,52 @@ public class RxResponseIoSample extends RxBaseResponse implements NoRequestRespo
 	}
 		
 	public boolean isA0Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator1, 2);
 	}
 
 	public boolean isA1Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator1, 3);
 	}
 	
 	public boolean isA2Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator1, 4);
 	}
 	
 	public boolean isA3Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator1, 5);
 	}
 	
 	public boolean isA4Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator1, 6);
 	}
 	
 	public boolean isA5Enabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(channelIndicator1, 7);
 	}
 	
 	public int getChannelIndicator1() {
+		this.parseDeferredBody();
 		return channelIndicator1;
 	}
 
 	public void setChannelIndicator1(int channelIndicator1) {
+		this.parseDeferredBody();
 		this.channelIndicator1 = channelIndicator1;
 	}
 
 	public int getChannelIndicator2() {
+		this.parseDeferredBody();
 		return channelIndicator2;
 	}
 
 	public void setChannelIndicator2(int channelIndicator2) {
+		this.parseDeferredBody();
 		this.channelIndicator2 = channelIndicator2;
 	}
 
@@ -265,6 +340,7 @@ public class RxResponseIoSample extends RxBaseResponse implements NoRequestRespo
 	 * Return true if this packet contains at least one analog sample
 	 */
 	public boolean containsAnalog() {
+		this.parseDeferredBody();
 		// ADC is active if > 0 after channel mask is applied
 		return (this.channelIndicator1 & ADC_CHANNEL1) > 0;
 	}
@@ -275,6 +351,7 @@ public class RxResponseIoSample extends RxBaseResponse implements NoRequestRespo
 	 * @return
 	 */
 	public boolean containsDigital() {
+		this.parseDeferredBody();
 		// DIO 8 occupies the first bit of the adcHeader
 		return (this.channelIndicator1 & DIO_CHANNEL1) > 0 || this.channelIndicator2 > 0;
 	}
@@ -285,6 +362,8 @@ public class RxResponseIoSample extends RxBaseResponse implements NoRequestRespo
 		
 		sb.append(super.toString());
 		
+		this.parseDeferredBody();
+		
 		sb.append(",#samples=" + this.samples.length);
 				
 		for (int i = 0; i < samples.length; i++) {
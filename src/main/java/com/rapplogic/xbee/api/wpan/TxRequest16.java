@@ -20,8 +20,8 @@
 package com.rapplogic.xbee.api.wpan;
 
 import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.FrameEncoder;
 import com.rapplogic.xbee.api.XBeeAddress16;
-import com.rapplogic.xbee.util.IntArrayOutputStream;
 
 /**
  * Series 1 XBee.  16-bit address Transmit Packet.  This is received on the destination XBee
@@ -79,9 +79,15 @@ public class TxRequest16 extends TxRequestBase {
 	}
 
 	public int[] getFrameData() {	
+		return this.toFrameData();
+	}
+	
+	public int getFrameDataLength() {
+		return 5 + this.getPayload().length;
+	}
+	
+	protected void writeFrameData(FrameEncoder out) {
 		// 3/6/10 fixed bug -- broadcast address is used with broadcast option, not no ACK
-		
-		IntArrayOutputStream out = new IntArrayOutputStream();
 
 		// api id
 		out.write(this.getApiId().getValue());
@@ -92,8 +98,6 @@ public class TxRequest16 extends TxRequestBase {
 		// options byte disable ack = 1, send pan id = 4
 		out.write(this.getOption().getValue());		
 		out.write(this.getPayload());
-
-		return out.getIntArray();	
 	}
 	
 	public ApiId getApiId() {
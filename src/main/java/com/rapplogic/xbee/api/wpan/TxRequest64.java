@@ -20,8 +20,8 @@
 package com.rapplogic.xbee.api.wpan;
 
 import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.FrameEncoder;
 import com.rapplogic.xbee.api.XBeeAddress64;
-import com.rapplogic.xbee.util.IntArrayOutputStream;
 
 // TODO test setting DH/DL to 0 and SH/SL
 
@@ -85,10 +85,15 @@ public class TxRequest64 extends TxRequestBase {
 	}
 
 	public int[] getFrameData() {
-		
+		return this.toFrameData();
+	}
+	
+	public int getFrameDataLength() {
+		return 11 + this.getPayload().length;
+	}
+	
+	protected void writeFrameData(FrameEncoder out) {
 		// 3/6/10 fixed bug -- broadcast address is used with broadcast option, not no ACK
-
-		IntArrayOutputStream out = new IntArrayOutputStream();
 		
 		// api id
 		out.write(this.getApiId().getValue());
@@ -102,8 +107,6 @@ public class TxRequest64 extends TxRequestBase {
 		// options byte disable ack = 1, send pan id = 4
 		out.write(this.getOption().getValue());		
 		out.write(this.getPayload());
-		
-		return out.getIntArray();	
 	}
 	
 	public ApiId getApiId() {
@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.FrameEncoder;
 import com.rapplogic.xbee.api.XBeeAddress16;
 import com.rapplogic.xbee.api.XBeeAddress64;
 import com.rapplogic.xbee.util.ByteUtils;
@@ -125,10 +126,12 @@ public class ZNetExplicitTxRequest extends ZNetTxRequest {
 		this.profileId = profileId;
 	}
 	
-	/**
-	 * Gets frame data from tx request (super) and inserts necessary bytes
-	 */
 	public int[] getFrameData() {
+		if (this.isFrameDataWriter()) {
+			return this.toFrameData();
+		}
+		
+		// a subclass overrides getFrameDataAsIntArrayOutputStream or getFrameData
 		
 		// get frame id from tx request
 		IntArrayOutputStream frameData = this.getFrameDataAsIntArrayOutputStream();
@@ -153,6 +156,43 @@ public class ZNetExplicitTxRequest extends ZNetTxRequest {
 		return frameData.getIntArray();
 	}
 	
+	public int getFrameDataLength() {
+		// tx request plus the explicit bytes
+		return super.getFrameDataLength() + 6;
+	}
+	
+	/**
+	 * Same as tx request (super) with the explicit bytes inserted after the 16-bit address
+	 */
+	protected void writeFrameData(FrameEncoder out) {
+		this.checkPayloadSize();
+		
+		// api id
+		out.write(this.getApiId().getValue());
+		// frame id (arbitrary byte that will be sent back with ack)
+		out.write(this.getFrameId());
+		out.write(this.getDestAddr64().getAddress());
+		out.write(this.getDestAddr16().getAddress());
+		
+		// explicit bytes
+		
+		// source endpoint
+		out.write(this.getSourceEndpoint());
+		// dest endpoint
+		out.write(this.getDestinationEndpoint());
+		// cluster id msb
+		out.write(this.getClusterId().getMsb());
+		// cluster id lsb
+		out.write(this.getClusterId().getLsb());
+		// profile id
+		out.write(this.getProfileId().getMsb());
+		out.write(this.getProfileId().getLsb());
+		
+		out.write(this.getBroadcastRadius());
+		out.write(this.getOption().getValue());
+		out.write(this.getPayload());
+	}
+	
 	public ApiId getApiId() {
 		return ApiId.ZNET_EXPLICIT_TX_REQUEST;
 	}
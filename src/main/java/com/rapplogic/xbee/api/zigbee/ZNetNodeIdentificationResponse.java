@@ -27,13 +27,15 @@ import java.util.Map;
 import org.apache.log4j.Logger;
 
 import com.rapplogic.xbee.api.IPacketParser;
+import com.rapplogic.xbee.api.InternalPacketParser;
 import com.rapplogic.xbee.api.XBeeAddress16;
 import com.rapplogic.xbee.api.XBeeAddress64;
 import com.rapplogic.xbee.api.XBeeResponse;
 import com.rapplogic.xbee.api.zigbee.ZNetRxBaseResponse.Option;
 import com.rapplogic.xbee.util.DoubleByte;
+import com.rapplogic.xbee.util.IIntInputStream;
 
-public class ZNetNodeIdentificationResponse extends XBeeResponse {
+public class ZNetNodeIdentificationResponse extends XBeeResponse implements XBeeResponse.DeferredBody {
 
 	private final static Logger log = Logger.getLogger(ZNetNodeIdentificationResponse.class);
 
@@ -139,66 +141,82 @@ public class ZNetNodeIdentificationResponse extends XBeeResponse {
 	}
 
 	public XBeeAddress64 getRemoteAddress64_2() {
+		this.parseDeferredBody();
 		return remoteAddress64_2;
 	}
 
 	public void setRemoteAddress64_2(XBeeAddress64 remoteAddress64_2) {
+		this.parseDeferredBody();
 		this.remoteAddress64_2 = remoteAddress64_2;
 	}
 
 	public XBeeAddress16 getRemoteAddress16_2() {
+		this.parseDeferredBody();
 		return remoteAddress16_2;
 	}
 
 	public void setRemoteAddress16_2(XBeeAddress16 remoteAddress16_2) {
+		this.parseDeferredBody();
 		this.remoteAddress16_2 = remoteAddress16_2;
 	}
 
 	public String getNodeIdentifier() {
+		this.parseDeferredBody();
 		return nodeIdentifier;
 	}
 
 	public void setNodeIdentifier(String nodeIdentifier) {
+		this.parseDeferredBody();
 		this.nodeIdentifier = nodeIdentifier;
 	}
 
 	public XBeeAddress16 getParentAddress() {
+		this.parseDeferredBody();
 		return parentAddress;
 	}
 
 	public void setParentAddress(XBeeAddress16 parentAddress) {
+		this.parseDeferredBody();
 		this.parentAddress = parentAddress;
 	}
 
 	public DeviceType getDeviceType() {
+		this.parseDeferredBody();
 		return deviceType;
 	}
 
 	public void setDeviceType(DeviceType deviceType) {
+		this.parseDeferredBody();
 		this.deviceType = deviceType;
 	}
 
 	public SourceAction getSourceAction() {
+		this.parseDeferredBody();
 		return sourceAction;
 	}
 
 	public void setSourceAction(SourceAction sourceAction) {
+		this.parseDeferredBody();
 		this.sourceAction = sourceAction;
 	}
 
 	public DoubleByte getProfileId() {
+		this.parseDeferredBody();
 		return profileId;
 	}
 
 	public void setProfileId(DoubleByte profileId) {
+		this.parseDeferredBody();
 		this.profileId = profileId;
 	}
 
 	public DoubleByte getMfgId() {
+		this.parseDeferredBody();
 		return mfgId;
 	}
 
 	public void setMfgId(DoubleByte mfgId) {
+		this.parseDeferredBody();
 		this.mfgId = mfgId;
 	}
 
@@ -210,8 +228,18 @@ public class ZNetNodeIdentificationResponse extends XBeeResponse {
 		
 		this.setOption(ZNetRxBaseResponse.getOption(option));		
 		
-		this.setRemoteAddress16_2(parser.parseAddress16());
-		this.setRemoteAddress64_2(parser.parseAddress64());
+		InternalPacketParser in = getInternalParser(parser);
+		
+		if (in.isLazyParsing()) {
+			this.deferBody(parser);
+		} else {
+			this.parseBody(in);
+		}
+	}
+	
+	public void parseBody(IIntInputStream parser) throws IOException {
+		this.setRemoteAddress16_2(parseAddress16(parser));
+		this.setRemoteAddress64_2(parseAddress64(parser));
 
 		
 		StringBuffer ni = new StringBuffer();
@@ -224,7 +252,7 @@ public class ZNetNodeIdentificationResponse extends XBeeResponse {
 		}
 		
 		this.setNodeIdentifier(ni.toString());
-		this.setParentAddress(parser.parseAddress16());		
+		this.setParentAddress(parseAddress16(parser));		
 		
 		int deviceType = parser.read("Device Type");
 		
@@ -256,8 +284,29 @@ public class ZNetNodeIdentificationResponse extends XBeeResponse {
 		this.setMfgId(mfgId);		
 	}
 	
+	private static XBeeAddress64 parseAddress64(IIntInputStream parser) throws IOException {
+		XBeeAddress64 addr = new XBeeAddress64();
+		
+		for (int i = 0; i < 8; i++) {
+			addr.getAddress()[i] = parser.read("64-bit Address byte");
+		}
+		
+		return addr;
+	}
+	
+	private static XBeeAddress16 parseAddress16(IIntInputStream parser) throws IOException {
+		XBeeAddress16 addr16 = new XBeeAddress16();
+		
+		addr16.setMsb(parser.read("Address 16 MSB"));
+		addr16.setLsb(parser.read("Address 16 LSB"));
+		
+		return addr16;
+	}
+	
 	@Override
 	public String toString() {
+		this.parseDeferredBody();
+		
 		return "ZNetNodeIdentificationResponse [deviceType=" + deviceType
 				+ ", mfgId=" + mfgId + ", nodeIdentifier=" + nodeIdentifier
 				+ ", option=" + option + ", parentAddress=" + parentAddress
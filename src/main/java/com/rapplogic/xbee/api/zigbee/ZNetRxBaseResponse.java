@@ -27,6 +27,7 @@ import java.util.Map;
 import org.apache.log4j.Logger;
 
 import com.rapplogic.xbee.api.IPacketParser;
+import com.rapplogic.xbee.api.InternalPacketParser;
 import com.rapplogic.xbee.api.XBeeAddress16;
 import com.rapplogic.xbee.api.XBeeAddress64;
 import com.rapplogic.xbee.api.XBeeResponse;
@@ -100,6 +101,10 @@ public abstract class ZNetRxBaseResponse extends XBeeResponse {
 	private XBeeAddress16 remoteAddress16;
 	private Option option;
 	
+	// address objects created by parseAddress, reused when this response is recycled
+	private XBeeAddress64 parsedAddress64;
+	private XBeeAddress16 parsedAddress16;
+	
 	public ZNetRxBaseResponse() {
 
 	}
@@ -129,8 +134,20 @@ public abstract class ZNetRxBaseResponse extends XBeeResponse {
 	}
 	
 	protected void parseAddress(IPacketParser parser) throws IOException {
-		this.setRemoteAddress64(parser.parseAddress64());
-		this.setRemoteAddress16(parser.parseAddress16());		
+		InternalPacketParser in = getInternalParser(parser);
+		
+		parsedAddress64 = in.parseAddress64(parsedAddress64);
+		parsedAddress16 = in.parseAddress16(parsedAddress16);
+		
+		this.setRemoteAddress64(parsedAddress64);
+		this.setRemoteAddress16(parsedAddress16);		
+	}
+	
+	protected void reset() {
+		remoteAddress64 = null;
+		remoteAddress16 = null;
+		option = null;
+		super.reset();
 	}
 
 	protected static Option getOption(int option) {
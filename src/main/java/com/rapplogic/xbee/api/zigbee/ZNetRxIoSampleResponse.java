@@ -25,8 +25,12 @@ import org.apache.log4j.Logger;
 
 import com.rapplogic.xbee.api.AtCommandResponse;
 import com.rapplogic.xbee.api.IPacketParser;
+import com.rapplogic.xbee.api.InternalPacketParser;
+import com.rapplogic.xbee.api.IoSampleBatch;
+import com.rapplogic.xbee.api.IoSampleSink;
 import com.rapplogic.xbee.api.NoRequestResponse;
 import com.rapplogic.xbee.api.XBeeParseException;
+import com.rapplogic.xbee.api.XBeeResponse;
 import com.rapplogic.xbee.util.ByteUtils;
 import com.rapplogic.xbee.util.IIntInputStream;
 import com.rapplogic.xbee.util.IntArrayInputStream;
@@ -35,12 +39,15 @@ import com.rapplogic.xbee.util.IntArrayInputStream;
  * Series 2 XBee.  Represents an I/O Sample response sent from a remote radio.
  * Provides access to the XBee's 4 Analog (0-4), 11 Digital (0-7,10-12), and 1 Supply Voltage pins
  * <p/>
- * Note: Series 2 XBee does not support multiple samples (IT) per packet
+ * A packet may contain multiple samples (IT > 1).  All samples of a packet have the same channels, and are decoded 
+ * into primitive arrays in a single pass.  The accessors without a sample argument return the first sample.  Samples are 
+ * taken at the sample rate (IR), so when the rate is configured (see XBeeConfiguration.withIoSampleRate) each 
+ * sample has a relative timestamp (getSampleOffset).
  * <p/>
  * @author andrew
  *
  */
-public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequestResponse {
+public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequestResponse, XBeeResponse.DeferredBody {
 	
 	private final static Logger log = Logger.getLogger(ZNetRxIoSampleResponse.class);
 	
@@ -48,12 +55,20 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	private int digitalChannelMaskLsb;
 	private int analogChannelMask;
 
-	// all values that may not be in the packet use Integer to distinguish between null and non-null
-	private Integer dioMsb;
-	private Integer dioLsb;
+	private final static int CHANNELS = IoSampleBatch.ANALOG_CHANNELS;
+	private final static int SUPPLY_VOLTAGE_INDEX = IoSampleBatch.SUPPLY_VOLTAGE;
 	
-	private final static int SUPPLY_VOLTAGE_INDEX = 4;
-	private Integer[] analog = new Integer[5];
+	// number of samples in the packet
+	private int sampleCount = 1;
+	// milliseconds between samples (IR), 0 if not known
+	private int sampleRate;
+	
+	// values are kept as primitives: dio[sample] is (DIO MSB << 8) + DIO LSB, so bit n is pin Dn, or -1 if the sample has no digital data
+	private int[] dio = new int[] {-1};
+	// analog[sample * CHANNELS + channel], channel is the bit of the analog channel mask
+	private int[] analog = new int[CHANNELS];
+	// bit n is set if channel n has a value
+	private int analogMask;
 	
 	public ZNetRxIoSampleResponse() {
 		
@@ -75,7 +90,56 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	public void parse(IPacketParser parser) throws IOException {
 		this.parseAddress(parser);
 		this.parseOption(parser);
-		this.parseIoSample((IIntInputStream)parser);
+		
+		InternalPacketParser in = getInternalParser(parser);
+		IoSampleSink sink = in.getIoSampleSink();
+		this.sampleRate = in.getIoSampleRate();
+		
+		if (in.isLazyParsing() && sink == null) {
+			this.deferBody(parser);
+		} else {
+			this.parseIoSample(in);
+			
+			if (sink != null) {
+				this.addTo(sink, System.currentTimeMillis());
+			}
+		}
+	}
+	
+	/**
+	 * Adds each sample to the sink.  The timestamp is that of the last sample, the earlier samples 
+	 * are stamped according to the sample rate.
+	 */
+	public void addTo(IoSampleSink sink, long timestamp) {
+		long source = IoSampleBatch.toLong(this.getRemoteAddress64());
+		int digitalEnabledMask = this.getDigitalEnabledMask();
+		int analogEnabledMask = this.getAnalogEnabledMask();
+		int last = sampleCount - 1;
+		
+		for (int sample = 0; sample <= last; sample++) {
+			sink.add(timestamp - this.getSampleOffset(last) + this.getSampleOffset(sample), source, digitalEnabledMask, 
+					this.getDigitalOnMask(sample), analogEnabledMask, analog, sample * CHANNELS);
+		}
+	}
+	
+	public void parseBody(IIntInputStream in) throws IOException {
+		this.parseIoSample(in);
+	}
+	
+	protected boolean isRecyclable() {
+		// subclasses must reset their own fields
+		return this.getClass() == ZNetRxIoSampleResponse.class;
+	}
+	
+	protected void reset() {
+		digitalChannelMaskMsb = 0;
+		digitalChannelMaskLsb = 0;
+		analogChannelMask = 0;
+		sampleCount = 1;
+		sampleRate = 0;
+		dio[0] = -1;
+		analogMask = 0;
+		super.reset();
 	}
 	
 	/**
@@ -86,11 +150,10 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	 * @throws IOException
 	 */
 	public void parseIoSample(IIntInputStream parser) throws IOException {
-		// eat sample size.. always 1
 		int size = parser.read("ZNet RX IO Sample Size");
 		
-		if (size != 1) {
-			throw new XBeeParseException("Sample size is not supported if > 1 for ZNet I/O");
+		if (size < 1) {
+			throw new XBeeParseException("Sample size must be at least 1 but is " + size);
 		}
 		
 		this.setDigitalChannelMaskMsb(parser.read("ZNet RX IO Sample Digital Mask 1"));
@@ -103,36 +166,90 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 		// TODO apparent bug: channel mask on ZigBee Pro firmware has DIO10/P0 as enabled even though it's set to 01 (RSSI).  Digital value reports low. 
 		this.digitalChannelMaskMsb = this.digitalChannelMaskMsb & 0x1c; //11100
 				
-		if (this.containsDigital()) {
-			log.info("response contains digital data");
-			// next two bytes are digital
-			this.setDioMsb(parser.read("ZNet RX IO DIO MSB"));
-			this.setDioLsb(parser.read("ZNet RX IO DIO LSB"));
-		} else {
-			log.info("response does not contain digital data");
+		// the arrays are kept when large enough (recycled response)
+		if (dio.length < size) {
+			dio = new int[size];
+		}
+		
+		if (analog.length < size * CHANNELS) {
+			analog = new int[size * CHANNELS];
 		}
 		
-		// parse 10-bit analog values
+		this.sampleCount = size;
 		
+		boolean containsDigital = this.containsDigital();
 		int enabledCount = 0;
 		
-		for (int i = 0; i < 4; i++) {
-			if (this.isAnalogEnabled(i)) {
-				log.info("response contains analog[" + i + "]");
-				analog[i] = ByteUtils.parse10BitAnalog(parser, enabledCount);
+		for (int sample = 0; sample < size; sample++) {
+			if (containsDigital) {
+				// next two bytes are digital
+				int dioMsb = parser.read("ZNet RX IO DIO MSB");
+				dio[sample] = (dioMsb << 8) + parser.read("ZNet RX IO DIO LSB");
+			} else {
+				dio[sample] = -1;
+			}
+			
+			// parse 10-bit analog values
+			
+			int offset = sample * CHANNELS;
+			enabledCount = 0;
+			
+			for (int i = 0; i < 4; i++) {
+				if (this.isAnalogEnabled(i)) {
+					analog[offset + i] = ByteUtils.parse10BitAnalog(parser, enabledCount);
+					enabledCount++;
+				}			
+			}
+			
+			if (this.isSupplyVoltageEnabled()) {
+				analog[offset + SUPPLY_VOLTAGE_INDEX] = ByteUtils.parse10BitAnalog(parser, enabledCount);
 				enabledCount++;
-			}			
+			}
 		}
 		
-		if (this.isSupplyVoltageEnabled()) {
-			analog[SUPPLY_VOLTAGE_INDEX] = ByteUtils.parse10BitAnalog(parser, enabledCount);
-			enabledCount++;
+		// same channels in every sample
+		analogMask = analogChannelMask;
+		
+		if (log.isDebugEnabled()) {
+			log.debug("There are " + size + " samples with " + enabledCount + " analog inputs in this packet");
+		}
+	}
+	
+	/**
+	 * Returns the number of samples in this packet
+	 */
+	public int getSampleCount() {
+		this.parseDeferredBody();
+		return sampleCount;
+	}
+	
+	/**
+	 * Returns the sample rate in milliseconds, or 0 if the sample rate is not configured.  This is the rate set with 
+	 * XBeeConfiguration.withIoSampleRate, not read from the radio: the packet does not carry the IR setting of the 
+	 * remote radio, so the offsets are only correct if the configured rate matches it.
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * Returns the time the sample was taken, in milliseconds relative to the first sample of this packet.
+	 * Always 0 if the sample rate is not configured.
+	 */
+	public long getSampleOffset(int sample) {
+		return (long) this.checkSample(sample) * sampleRate;
+	}
+	
+	private int checkSample(int sample) {
+		if (sample < 0 || sample >= this.getSampleCount()) {
+			throw new IndexOutOfBoundsException("sample " + sample + ", sample count " + sampleCount);
 		}
 		
-		log.debug("There are " + analog + " analog inputs in this packet");
+		return sample;
 	}
 	
 	public int getDigitalChannelMaskMsb() {
+		this.parseDeferredBody();
 		return digitalChannelMaskMsb;
 	}
 
@@ -141,6 +258,7 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	}
 
 	public int getDigitalChannelMaskLsb() {
+		this.parseDeferredBody();
 		return digitalChannelMaskLsb;
 	}
 
@@ -149,6 +267,7 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	}
 
 	public int getAnalogChannelMask() {
+		this.parseDeferredBody();
 		return analogChannelMask;
 	}
 
@@ -226,7 +345,42 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 		return this.isAnalogEnabled(3);
 	}	
 	
+	/**
+	 * Returns the pins configured for digital input, bit n is pin Dn
+	 */
+	public int getDigitalEnabledMask() {
+		this.parseDeferredBody();
+		return (this.digitalChannelMaskMsb << 8) + this.digitalChannelMaskLsb;
+	}
+	
+	/**
+	 * Returns the pins that are high, bit n is pin Dn.  Only pins that are enabled for digital input are included.
+	 */
+	public int getDigitalOnMask() {
+		return this.getDigitalOnMask(0);
+	}
+	
+	/**
+	 * Same as getDigitalOnMask() for the specified sample
+	 */
+	public int getDigitalOnMask(int sample) {
+		// checkSample parses a deferred body, which replaces dio
+		int index = this.checkSample(sample);
+		int value = dio[index];
+		return value == -1 ? 0 : value & this.getDigitalEnabledMask();
+	}
+	
+	/**
+	 * Returns the channels that have an analog value in this sample, bit n is pin An and bit 
+	 * IoSampleBatch.SUPPLY_VOLTAGE is the supply voltage
+	 */
+	public int getAnalogEnabledMask() {
+		this.parseDeferredBody();
+		return analogMask & this.analogChannelMask;
+	}
+	
 	public boolean isDigitalEnabled(int pin) {
+		this.parseDeferredBody();
 		if (pin >=0 && pin <= 7) {
 			return ByteUtils.getBit(this.digitalChannelMaskLsb, pin + 1);
 		} else if (pin >=10 && pin <= 12) {
@@ -237,6 +391,7 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	}
 
 	public boolean isAnalogEnabled(int pin) {
+		this.parseDeferredBody();
 		if (pin >=0 && pin <= 3) {
 			return ByteUtils.getBit(this.analogChannelMask, pin + 1);
 		} else {
@@ -252,6 +407,7 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	 * @return
 	 */
 	public boolean isSupplyVoltageEnabled() {
+		this.parseDeferredBody();
 		return ByteUtils.getBit(this.analogChannelMask, 8);
 	}
 
@@ -361,15 +517,25 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	 */	
 	public Boolean isDigitalOn(int pin) {
 		if (this.isDigitalEnabled(pin)) {
-			if (pin >=0 && pin <= 7) {
-				return ByteUtils.getBit(dioLsb, pin + 1);
-			} else if (pin >=10 && pin <= 12) {
-				return ByteUtils.getBit(dioMsb, pin - 7);
-			}			
+			return Boolean.valueOf(this.isDigitalHigh(pin));
 		}
 		
 		return null;
 	}
+	
+	/**
+	 * Same as isDigitalOn(pin) but returns false, instead of null, if the pin is not enabled
+	 */
+	public boolean isDigitalHigh(int pin) {
+		return (this.getDigitalOnMask() & (1 << pin)) != 0;
+	}
+	
+	/**
+	 * Same as isDigitalHigh(pin) for the specified sample
+	 */
+	public boolean isDigitalHigh(int sample, int pin) {
+		return (this.getDigitalOnMask(sample) & (1 << pin)) != 0;
+	}
 
 	/**
 	 * Returns true if this sample contains data from digital inputs
@@ -401,11 +567,8 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	 * @return
 	 */
 	public Integer getDioMsb() {
-		return dioMsb;
-	}
-
-	private void setDioMsb(Integer dioMsb) {
-		this.dioMsb = dioMsb;
+		this.parseDeferredBody();
+		return dio[0] == -1 ? null : Integer.valueOf(dio[0] >> 8);
 	}
 
 	/**
@@ -414,11 +577,27 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	 * @return
 	 */
 	public Integer getDioLsb() {
-		return dioLsb;
+		this.parseDeferredBody();
+		return dio[0] == -1 ? null : Integer.valueOf(dio[0] & 0xff);
 	}
-
-	private void setDioLsb(Integer dioLsb) {
-		this.dioLsb = dioLsb;
+	
+	private Integer getAnalogIfSet(int channel) {
+		this.parseDeferredBody();
+		return (analogMask & (1 << channel)) != 0 ? Integer.valueOf(analog[channel]) : null;
+	}
+	
+	private void setAnalog(int channel, int value) {
+		analog[channel] = value;
+		analogMask|= 1 << channel;
+	}
+	
+	private void setAnalog(int channel, Integer value) {
+		this.parseDeferredBody();
+		if (value == null) {
+			analogMask&= ~(1 << channel);
+		} else {
+			this.setAnalog(channel, value.intValue());
+		}
 	}
 	
 	/**
@@ -427,35 +606,35 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	 * @return
 	 */
 	public Integer getAnalog0() {
-		return analog[0];
+		return this.getAnalogIfSet(0);
 	}
 
 	public void setAnalog0(Integer analog0) {
-		analog[0] = analog0;
+		this.setAnalog(0, analog0);
 	}		
 	
 	public Integer getAnalog1() {
-		return analog[1];
+		return this.getAnalogIfSet(1);
 	}
 
 	public void setAnalog1(Integer analog1) {
-		analog[1] = analog1;
+		this.setAnalog(1, analog1);
 	}
 
 	public Integer getAnalog2() {
-		return analog[2];
+		return this.getAnalogIfSet(2);
 	}
 
 	public void setAnalog2(Integer analog2) {
-		analog[2] = analog2;
+		this.setAnalog(2, analog2);
 	}
 
 	public Integer getAnalog3() {
-		return analog[3];
+		return this.getAnalogIfSet(3);
 	}
 
 	public void setAnalog3(Integer analog3) {
-		analog[3] = analog3;
+		this.setAnalog(3, analog3);
 	}	
 	
 	/**
@@ -475,11 +654,42 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 	 */
 	public Integer getAnalog(int pin) {
 		if (this.isAnalogEnabled(pin)) {
-			return analog[pin];
+			return this.getAnalogIfSet(pin);
 		}
 		
 		return null;
 	}
+	
+	/**
+	 * Same as getAnalog(pin) but does not box the value.  Returns -1 if the pin is not enabled.
+	 */
+	public int getAnalogValue(int pin) {
+		return this.getAnalogValue(0, pin);
+	}
+	
+	/**
+	 * Same as getAnalogValue(pin) for the specified sample
+	 */
+	public int getAnalogValue(int sample, int pin) {
+		if (this.isAnalogEnabled(pin) && (analogMask & (1 << pin)) != 0) {
+			int offset = this.checkSample(sample) * CHANNELS;
+			return analog[offset + pin];
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Returns the supply voltage of the specified sample, or -1 if the supply voltage is not in the packet
+	 */
+	public int getSupplyVoltageValue(int sample) {
+		if (this.isSupplyVoltageEnabled() && (analogMask & (1 << SUPPLY_VOLTAGE_INDEX)) != 0) {
+			int offset = this.checkSample(sample) * CHANNELS;
+			return analog[offset + SUPPLY_VOLTAGE_INDEX];
+		}
+		
+		return -1;
+	}
 		
 //	public Integer getAnalog(int pin) {
 //		// analog starts 19 bytes after MSB length, if no dio enabled
@@ -506,11 +716,11 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 //	}
 
 	public Integer getSupplyVoltage() {
-		return analog[SUPPLY_VOLTAGE_INDEX];
+		return this.getAnalogIfSet(SUPPLY_VOLTAGE_INDEX);
 	}
 
 	public void setSupplyVoltage(Integer supplyVoltage) {
-		analog[SUPPLY_VOLTAGE_INDEX] = supplyVoltage;
+		this.setAnalog(SUPPLY_VOLTAGE_INDEX, supplyVoltage);
 	}
 	
 	public String toString() {
@@ -518,6 +728,10 @@ public class ZNetRxIoSampleResponse extends ZNetRxBaseResponse implements NoRequ
 		
 		builder.append(super.toString());
 		
+		if (this.getSampleCount() > 1) {
+			builder.append(",sampleCount=" + this.getSampleCount());
+		}
+		
 		if (this.containsDigital()) {
 			for (int i = 0; i <= 7; i++) {
 				if (this.isDigitalEnabled(i)) {
@@ -37,6 +37,8 @@ import com.rapplogic.xbee.util.ByteUtils;
 public class ZNetRxResponse extends ZNetRxBaseResponse implements NoRequestResponse {
 
 	private int[] data;
+	// data array created by parse, reused when this response is recycled
+	private int[] parsedData;
 	
 	public ZNetRxResponse() {
 		super();
@@ -53,7 +55,18 @@ public class ZNetRxResponse extends ZNetRxBaseResponse implements NoRequestRespo
 	public void parse(IPacketParser parser) throws IOException {
 		this.parseAddress(parser);
 		this.parseOption(parser);
-		this.setData(parser.readRemainingBytes());	
+		parsedData = getInternalParser(parser).readRemainingBytes(parsedData);
+		this.setData(parsedData);	
+	}
+	
+	protected boolean isRecyclable() {
+		// subclasses must reset their own fields
+		return this.getClass() == ZNetRxResponse.class;
+	}
+	
+	protected void reset() {
+		data = null;
+		super.reset();
 	}
 			
 	public String toString() {
@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.FrameEncoder;
 import com.rapplogic.xbee.api.XBeeAddress16;
 import com.rapplogic.xbee.api.XBeeAddress64;
 import com.rapplogic.xbee.api.XBeeRequest;
@@ -144,10 +145,7 @@ public class ZNetTxRequest extends XBeeRequest {
 	}
 	
 	protected IntArrayOutputStream getFrameDataAsIntArrayOutputStream() {
-
-		if (this.getMaxPayloadSize() > 0 && payload.length > this.getMaxPayloadSize()) {
-			throw new IllegalArgumentException("Payload exceeds user-defined maximum payload size of " + this.getMaxPayloadSize() + " bytes.  Please package into multiple packets");
-		}
+		this.checkPayloadSize();
 		
 		IntArrayOutputStream out = new IntArrayOutputStream();
 		
@@ -175,7 +173,46 @@ public class ZNetTxRequest extends XBeeRequest {
 	}
 	
 	public int[] getFrameData() {
-		return this.getFrameDataAsIntArrayOutputStream().getIntArray();
+		if (!this.isFrameDataWriter()) {
+			// a subclass overrides getFrameDataAsIntArrayOutputStream or getFrameData
+			return this.getFrameDataAsIntArrayOutputStream().getIntArray();
+		}
+		
+		return this.toFrameData();
+	}
+	
+	public int getFrameDataLength() {
+		return 14 + payload.length;
+	}
+	
+	protected void writeFrameData(FrameEncoder out) {
+		this.checkPayloadSize();
+		
+		// api id
+		out.write(this.getApiId().getValue()); 
+		
+		// frame id (arbitrary byte that will be sent back with ack)
+		out.write(this.getFrameId());
+		
+		// add 64-bit dest address
+		out.write(destAddr64.getAddress());
+		
+		// add 16-bit dest address
+		out.write(destAddr16.getAddress());
+		
+		// write broadcast radius
+		out.write(broadcastRadius);
+		
+		// write options byte
+		out.write(option.getValue());
+		
+		out.write(payload);
+	}
+	
+	protected void checkPayloadSize() {
+		if (this.getMaxPayloadSize() > 0 && payload.length > this.getMaxPayloadSize()) {
+			throw new IllegalArgumentException("Payload exceeds user-defined maximum payload size of " + this.getMaxPayloadSize() + " bytes.  Please package into multiple packets");
+		}
 	}
 	
 	public ApiId getApiId() {
@@ -152,6 +152,9 @@ public class ZNetTxStatusResponse extends XBeeFrameIdResponse {
 	private DeliveryStatus deliveryStatus;
 	private DiscoveryStatus discoveryStatus;
 	
+	// address created by parse, reused when this response is recycled
+	private XBeeAddress16 parsedAddress16;
+	
 	
 	public ZNetTxStatusResponse() {
 
@@ -204,7 +207,8 @@ public class ZNetTxStatusResponse extends XBeeFrameIdResponse {
 	public void parse(IPacketParser parser) throws IOException {		
 		this.setFrameId(parser.read("ZNet Tx Status Frame Id"));
 
-		this.setRemoteAddress16(parser.parseAddress16());
+		parsedAddress16 = getInternalParser(parser).parseAddress16(parsedAddress16);
+		this.setRemoteAddress16(parsedAddress16);
 		this.setRetryCount(parser.read("ZNet Tx Status Tx Count"));
 		
 		int deliveryStatus = parser.read("ZNet Tx Status Delivery Status");
@@ -226,6 +230,19 @@ public class ZNetTxStatusResponse extends XBeeFrameIdResponse {
 		}
 	}
 	
+	protected boolean isRecyclable() {
+		// subclasses must reset their own fields
+		return this.getClass() == ZNetTxStatusResponse.class;
+	}
+	
+	protected void reset() {
+		remoteAddress16 = null;
+		retryCount = 0;
+		deliveryStatus = null;
+		discoveryStatus = null;
+		super.reset();
+	}
+	
 	public String toString() {
 		return super.toString() + 
 		",remoteAddress16=" + this.remoteAddress16 +
@@ -0,0 +1,117 @@
+package com.rapplogic.xbee.socket;
+
+import com.rapplogic.xbee.SelectableXBeeConnection;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Socket connection for use with an XBeeReactor (see XBeeConfiguration.withReactor).  Unlike SocketXBeeConnection
+ * no threads are created: the reactor reads the non-blocking socket channel when data arrives.
+ * <p/>
+ * The input stream is only provided to satisfy XBeeConnection; it cannot be read since the channel is non-blocking.
+ */
+public class NioSocketXBeeConnection implements SelectableXBeeConnection {
+
+	private final static Logger log = Logger.getLogger(NioSocketXBeeConnection.class);
+
+	private final SocketChannel channel;
+	private final InputStream in;
+	private final OutputStream out = new XBeeSocketChannelOutputStream();
+	// waits for OP_WRITE when the socket send buffer is full; opened on first use, guarded by out
+	private Selector writeSelector;
+
+	public NioSocketXBeeConnection(final String host, final Integer port) throws ServerNotAvailableException {
+		try {
+			channel = SocketChannel.open(new InetSocketAddress(host, port));
+			channel.configureBlocking(false);
+			log.info("Successfully connected to socket server");
+		} catch (IOException e) {
+			log.warn("Unable to connect to host:port " + host + ":" + port);
+			throw new ServerNotAvailableException("Unable to connect to host:port " + host + ":" + port, e);
+		}
+
+		in = Channels.newInputStream(channel);
+	}
+
+	public SelectableChannel getChannel() {
+		return channel;
+	}
+
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	public class XBeeSocketChannelOutputStream extends OutputStream {
+
+		@Override
+		public void write(int i) throws IOException {
+			this.write(new byte[] {(byte) i}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+
+			try {
+				synchronized (this) {
+					while (buffer.hasRemaining()) {
+						if (channel.write(buffer) == 0) {
+							// socket send buffer is full
+							awaitWritable();
+						}
+					}
+				}
+			} catch (IOException e) {
+				log.warn("Failed to write to socket channel. closing socket. error: " + e.toString());
+				tryClose();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Waits until the channel is writable.  The wait is bounded, so the channel is checked again if it was closed
+	 */
+	private void awaitWritable() throws IOException {
+		if (writeSelector == null) {
+			writeSelector = Selector.open();
+			channel.register(writeSelector, SelectionKey.OP_WRITE);
+		}
+		
+		writeSelector.select(1000);
+		writeSelector.selectedKeys().clear();
+	}
+	
+	private void tryClose() {
+		try {
+			log.info("Closing socket");
+			close();
+		} catch (Exception e) {
+			log.warn("Failed to close socket " + e.toString());
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+		
+		synchronized (out) {
+			if (writeSelector != null) {
+				writeSelector.close();
+			}
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.rapplogic.xbee.socket;
 import com.rapplogic.xbee.AbstractXBeeConnection;
 import org.apache.log4j.Logger;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
@@ -15,6 +16,9 @@ public class SocketXBeeConnection extends AbstractXBeeConnection {
 
 	private final static Logger log = Logger.getLogger(SocketXBeeConnection.class);
 
+	// large enough for several packets
+	private final static int SEND_BUFFER_SIZE = 1024;
+	
 	private Socket socket;
 	private XBeeSocketOutputStream xBeeSocketOutputStream;
 	private OutputStream out;
@@ -49,7 +53,9 @@ public class SocketXBeeConnection extends AbstractXBeeConnection {
 		}
 
 		try {
-			out = socket.getOutputStream();
+			// packets are written with one bulk write and a flush, so there is no need to wait for more data (Nagle)
+			socket.setTcpNoDelay(true);
+			out = new BufferedOutputStream(socket.getOutputStream(), SEND_BUFFER_SIZE);
 			xBeeSocketOutputStream = new XBeeSocketOutputStream();
 		} catch (IOException e) {
 			throw new RuntimeException("Outputstream not available for socket", e);
@@ -93,6 +99,9 @@ public class SocketXBeeConnection extends AbstractXBeeConnection {
 		});
 	}
 
+	/**
+	 * Buffered: bytes are sent to the socket when the buffer is full or on flush
+	 */
 	public class XBeeSocketOutputStream extends OutputStream {
 
 		@Override
@@ -105,6 +114,28 @@ public class SocketXBeeConnection extends AbstractXBeeConnection {
 				throw e;
 			}
 		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			try {
+				out.write(b, off, len);
+			} catch (IOException e) {
+				log.warn("Failed to write " + len + " bytes to output stream. closing socket. error: " + e.toString() + ", socket " + socketStatus());
+				tryClose();
+				throw e;
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				log.warn("Failed to flush output stream. closing socket. error: " + e.toString() + ", socket " + socketStatus());
+				tryClose();
+				throw e;
+			}
+		}
 	}
 
 	private String socketStatus() {
@@ -125,6 +125,23 @@ public class ByteUtils {
 		return sb.toString();
 	}
 	
+	/**
+	 * Formats len bytes of arr, starting at offset, as comma separated hex
+	 */
+	public static String toBase16(byte[] arr, int offset, int len) {
+		StringBuffer sb = new StringBuffer();
+		
+		for (int i = offset; i < offset + len; i++) {
+			sb.append(toBase16(arr[i] & 0xff));
+			
+			if (i < offset + len - 1) {
+				sb.append(",");
+			}
+		}
+		
+		return sb.toString();
+	}
+	
 	public static String toBase2(int[] arr) {
 
 		if (arr == null) {
@@ -297,8 +314,8 @@ public class ByteUtils {
 	}
 	
 	public static int parse10BitAnalog(IIntInputStream in, int pos) throws IOException {
-		int adcMsb = in.read("Analog " + pos + " MSB");
-		int adcLsb = in.read("Analog " + pos + " LSB");
+		int adcMsb = in.read("Analog MSB");
+		int adcLsb = in.read("Analog LSB");
 		
 		return ByteUtils.parse10BitAnalog(adcMsb, adcLsb);
 	}
@@ -31,6 +31,17 @@ public class IntArrayInputStream implements IIntInputStream {
 		this.source = source;
 	}
 	
+	/**
+	 * Creates a stream that starts reading at index pos of source
+	 * 
+	 * @param source
+	 * @param pos
+	 */
+	public IntArrayInputStream(int[] source, int pos) {
+		this.source = source;
+		this.pos = pos;
+	}
+	
 	public int read() {
 		if (pos >= source.length) {
 			throw new IllegalStateException("end of input stream");